@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.blowfish;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Throughput of {@link BlowfishEngine} on 21x payloads, the interleaved multi-block path
+ * against one block per call.
+ * <p>
+ * Run with <code>gradle jmh</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlowfishEngineBenchmark {
+    @Param({"8192", "1048576"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean encryption;
+
+    private BlowfishEngine engine;
+    private byte[] data;
+    private ByteBuffer direct;
+
+    @Setup
+    public void setup() {
+        engine = new BlowfishEngine();
+        engine.init(encryption, L2Ver21x.BLOWFISH_KEY_212);
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        direct = ByteBuffer.allocateDirect(size);
+        direct.put(data).clear();
+    }
+
+    @Benchmark
+    public byte[] processBlocks() throws IllegalBlockSizeException, ShortBufferException {
+        engine.processBlocks(data, 0, data, 0, size / 8);
+        return data;
+    }
+
+    @Benchmark
+    public byte[] processBlock() throws IllegalBlockSizeException, ShortBufferException {
+        for (int off = 0; off < size; off += 8) {
+            engine.processBlock(data, off, data, off);
+        }
+        return data;
+    }
+
+    @Benchmark
+    public ByteBuffer processBlocksDirect() throws ShortBufferException {
+        direct.clear();
+        engine.processBlocks(direct, direct.duplicate());
+        return direct;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Transformation of a byte sequence that arrives in parts, e.g. one cipher layer of a payload
+ * decrypted as it is received. Works on heap and direct buffers alike.
+ * <p>
+ * Codecs keep their state, such as the payload position, between calls.
+ * Block codecs consume whole blocks only and leave a trailing partial block in the source,
+ * to be passed again followed by the next data.
+ *
+ * @see RandomAccessCipher#codec(long)
+ */
+@FunctionalInterface
+public interface BufferCodec {
+    /**
+     * Transforms data remaining in <code>src</code> into <code>dst</code>, as much as fits,
+     * advancing the positions of both buffers. Codecs that preserve length accept the same buffer
+     * as <code>src</code> and <code>dst</code> for in-place operation.
+     *
+     * @return the number of bytes written to <code>dst</code>
+     */
+    int transform(ByteBuffer src, ByteBuffer dst);
+}
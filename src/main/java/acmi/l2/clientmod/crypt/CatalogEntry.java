@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Header information of a file found by {@link L2Crypt#scan(Path)}.
+ */
+public final class CatalogEntry {
+    private final Path path;
+    private final long size;
+    private final int version;
+    private final int payloadOffset;
+    private final IOException error;
+
+    CatalogEntry(Path path, long size, int version, int payloadOffset, IOException error) {
+        this.path = path;
+        this.size = size;
+        this.version = version;
+        this.payloadOffset = payloadOffset;
+        this.error = error;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the file size including the header, <code>-1</code> if the file could not be read
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the header version, {@link L2Crypt#NO_CRYPT} for a file without a header
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the file position the payload starts at
+     */
+    public int getPayloadOffset() {
+        return payloadOffset;
+    }
+
+    /**
+     * @return why the file or directory could not be read, <code>null</code> if its header was read
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        if (error != null) {
+            return path + " [" + error + "]";
+        }
+        return path + " [" + version + ", " + size + " bytes]";
+    }
+}
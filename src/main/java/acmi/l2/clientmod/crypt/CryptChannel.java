@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Payload of a random access crypt version file as a {@link SeekableByteChannel}.
+ * Only the blocks a read or write touches are processed, a partially written block
+ * is read, decrypted, patched and encrypted back.
+ * <p>
+ * Positions and size are payload ones, i.e. the file header is not part of the channel.
+ * With a block cipher the size is a multiple of the block size: a trailing partial block
+ * of the file is ignored and writes past the end are padded with zeros to a whole block.
+ */
+final class CryptChannel implements SeekableByteChannel {
+    private static final int BUFFER_SIZE = 0x10000;
+
+    private final FileChannel channel;
+    private final long offset;
+    private final RandomAccessCipher decryption;
+    private final RandomAccessCipher encryption;
+    private final int blockSize;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long position;
+
+    /**
+     * @param offset     file position of the payload start
+     * @param encryption <code>null</code> for a read-only channel
+     */
+    CryptChannel(FileChannel channel, long offset, RandomAccessCipher decryption, RandomAccessCipher encryption) {
+        this.channel = channel;
+        this.offset = offset;
+        this.decryption = decryption;
+        this.encryption = encryption;
+        this.blockSize = decryption.getBlockSize();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        long size = size();
+        if (position >= size) {
+            return -1;
+        }
+
+        long end = Math.min(size, position + dst.remaining());
+        int read = 0;
+        while (position < end) {
+            long chunkStart = alignDown(position);
+            int length = (int) Math.min(alignUp(end) - chunkStart, buffer.length);
+            readChunk(chunkStart, length);
+
+            int skip = (int) (position - chunkStart);
+            int count = (int) Math.min(length - skip, end - position);
+            dst.put(buffer, skip, count);
+            position += count;
+            read += count;
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        if (encryption == null) {
+            throw new NonWritableChannelException();
+        }
+        if (!src.hasRemaining()) {
+            return 0;
+        }
+
+        long size = size();
+        long end = position + src.remaining();
+        // a gap past the end is filled with encrypted zeros
+        long chunkStart = Math.min(alignDown(position), size);
+        int written = 0;
+        while (chunkStart < end) {
+            int length = (int) Math.min(alignUp(end) - chunkStart, buffer.length);
+            long chunkEnd = chunkStart + length;
+
+            if (chunkStart < position || chunkEnd > end) {
+                int existing = (int) Math.max(0, Math.min(length, size - chunkStart));
+                readChunk(chunkStart, existing);
+                Arrays.fill(buffer, existing, length, (byte) 0);
+            }
+
+            long from = Math.max(chunkStart, position);
+            int count = (int) (Math.min(chunkEnd, end) - from);
+            if (count > 0) {
+                src.get(buffer, (int) (from - chunkStart), count);
+                written += count;
+            }
+
+            encryption.process(chunkStart, buffer, 0, buffer, 0, length);
+            ParallelCrypt.writeFully(channel, ByteBuffer.wrap(buffer, 0, length), offset + chunkStart);
+            chunkStart = chunkEnd;
+        }
+        position = end;
+        return written;
+    }
+
+    private void readChunk(long chunkStart, int length) throws IOException {
+        ParallelCrypt.readFully(channel, ByteBuffer.wrap(buffer, 0, length), offset + chunkStart);
+        decryption.process(chunkStart, buffer, 0, buffer, 0, length);
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position");
+        }
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return alignDown(Math.max(0, channel.size() - offset));
+    }
+
+    /**
+     * Truncates the payload, with a block cipher <code>size</code> is rounded up to a whole block.
+     */
+    @Override
+    public synchronized SeekableByteChannel truncate(long size) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("negative size");
+        }
+        ensureOpen();
+        if (encryption == null) {
+            throw new NonWritableChannelException();
+        }
+
+        channel.truncate(offset + alignUp(size));
+        position = Math.min(position, size);
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long alignDown(long position) {
+        return position - position % blockSize;
+    }
+
+    private long alignUp(long position) {
+        return alignDown(position + blockSize - 1);
+    }
+}
@@ -21,18 +21,50 @@
  */
 package acmi.l2.clientmod.crypt;
 
+import acmi.l2.clientmod.crypt.blowfish.L2Ver21x;
 import acmi.l2.clientmod.crypt.blowfish.L2Ver21xInputStream;
 import acmi.l2.clientmod.crypt.blowfish.L2Ver21xOutputStream;
 import acmi.l2.clientmod.crypt.lame.LameCrypt;
+import acmi.l2.clientmod.crypt.lame.LameCryptInputStream;
+import acmi.l2.clientmod.crypt.rsa.L2Ver41xBlockDecoder;
+import acmi.l2.clientmod.crypt.rsa.L2Ver41xIndex;
 import acmi.l2.clientmod.crypt.rsa.L2Ver41xInputStream;
 import acmi.l2.clientmod.crypt.rsa.L2Ver41xOutputStream;
+import acmi.l2.clientmod.crypt.rsa.L2Ver41xRekeyer;
+import acmi.l2.clientmod.crypt.xor.L2Ver120;
 import acmi.l2.clientmod.crypt.xor.L2Ver120InputStream;
 import acmi.l2.clientmod.crypt.xor.L2Ver120OutputStream;
+import acmi.l2.clientmod.crypt.xor.L2Ver1x1;
 import acmi.l2.clientmod.crypt.xor.L2Ver1x1InputStream;
 import acmi.l2.clientmod.crypt.xor.L2Ver1x1OutputStream;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Deflater;
 
 import static acmi.l2.clientmod.crypt.blowfish.L2Ver21x.BLOWFISH_KEY_211;
 import static acmi.l2.clientmod.crypt.blowfish.L2Ver21x.BLOWFISH_KEY_212;
@@ -40,6 +72,8 @@ import static acmi.l2.clientmod.crypt.rsa.L2Ver41x.*;
 import static acmi.l2.clientmod.crypt.xor.L2Ver1x1.XOR_KEY_111;
 import static acmi.l2.clientmod.crypt.xor.L2Ver1x1.getXORKey121;
 import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
 
 public class L2Crypt {
     public static final int NO_CRYPT = -1;
@@ -52,6 +86,10 @@ public class L2Crypt {
     };
     private static BigInteger publicModulus = MODULUS_L2ENCDEC;
     private static BigInteger publicExponent = PUBLIC_EXPONENT_L2ENCDEC;
+    private static Executor rsaExecutor;
+    private static int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+    private static int deflateStrategy = Deflater.DEFAULT_STRATEGY;
+    private static int inflateBufferSize = L2Ver41xInputStream.DEFAULT_BUFFER_SIZE;
 
     public static void set41xPrivateKey(int version, BigInteger modulus, BigInteger exponent) {
         RSA_KEYS[version - 411][0] = modulus;
@@ -63,17 +101,97 @@ public class L2Crypt {
         L2Crypt.publicExponent = publicExponent;
     }
 
+    /**
+     * Sets the worker pool used for 41x RSA blocks: decryption runs ahead of inflation,
+     * encryption of deflated blocks runs in parallel and blocks are written in order.
+     *
+     * @param executor the pool, <code>null</code> (the default) to process blocks on the calling thread
+     */
+    public static void set41xExecutor(Executor executor) {
+        L2Crypt.rsaExecutor = executor;
+    }
+
+    /**
+     * Sets how 41x data is compressed, e.g. {@link Deflater#BEST_SPEED} for development builds
+     * and {@link Deflater#BEST_COMPRESSION} for releases.
+     *
+     * @param level    the {@link Deflater} compression level, {@link Deflater#DEFAULT_COMPRESSION} by default
+     * @param strategy the {@link Deflater} compression strategy, {@link Deflater#DEFAULT_STRATEGY} by default
+     * @throws IllegalArgumentException if the level or the strategy is invalid
+     */
+    public static void set41xCompression(int level, int strategy) {
+        checkCompression(level, strategy);
+
+        L2Crypt.deflateLevel = level;
+        L2Crypt.deflateStrategy = strategy;
+    }
+
+    /**
+     * Sets how much decrypted 41x data is handed to the inflater at once.
+     *
+     * @param bufferSize the size, {@link L2Ver41xInputStream#DEFAULT_BUFFER_SIZE} by default
+     */
+    public static void set41xInflateBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size <= 0");
+        }
+
+        L2Crypt.inflateBufferSize = bufferSize;
+    }
+
     public static final int HEADER_SIZE = 28;
 
+    private static final byte[] HEADER_PREFIX = "Lineage2Ver".getBytes(UTF_16LE);
+
     public static int readHeader(InputStream input) throws IOException {
         byte[] header = new byte[HEADER_SIZE];
-        new DataInputStream(input).readFully(header);
-        String headerStr = new String(header, UTF_16LE);
-        if (!headerStr.matches("Lineage2Ver\\d{3}")) {
-            return NO_CRYPT;
+        if (readHeader(input, header) < HEADER_SIZE) {
+            throw new EOFException();
         }
 
-        return Integer.parseInt(headerStr.substring(11));
+        return parseHeader(header, 0);
+    }
+
+    /**
+     * Parses a <code>Lineage2VerXXX</code> UTF-16LE header by comparing raw bytes, without decoding it.
+     *
+     * @return the version, {@link #NO_CRYPT} if the bytes are not a header
+     */
+    public static int parseHeader(byte[] b, int off) {
+        Objects.checkFromIndexSize(off, HEADER_SIZE, b.length);
+
+        for (int i = 0; i < HEADER_PREFIX.length; i++) {
+            if (b[off + i] != HEADER_PREFIX[i]) {
+                return NO_CRYPT;
+            }
+        }
+
+        int version = 0;
+        for (int i = HEADER_PREFIX.length; i < HEADER_SIZE; i += 2) {
+            int digit = (b[off + i] & 0xff | (b[off + i + 1] & 0xff) << 8) - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_CRYPT;
+            }
+            version = version * 10 + digit;
+        }
+        return version;
+    }
+
+    /**
+     * Reads up to {@link #HEADER_SIZE} bytes, fewer only at the end of the input.
+     *
+     * @return the number of bytes read
+     */
+    private static int readHeader(InputStream input, byte[] header) throws IOException {
+        int count = 0;
+        while (count < HEADER_SIZE) {
+            int r = input.read(header, count, HEADER_SIZE - count);
+            if (r < 0) {
+                break;
+            }
+            count += r;
+        }
+        return count;
     }
 
     public static void writeHeader(OutputStream output, int version) throws IOException {
@@ -84,11 +202,26 @@ public class L2Crypt {
         return decrypt(new FileInputStream(file), file.getName());
     }
 
+    /**
+     * Returns a stream of decrypted data. Data without a header, {@link #NO_CRYPT},
+     * is returned as is, including its first {@link #HEADER_SIZE} bytes.
+     */
     public static InputStream decrypt(InputStream input, String fileName) throws IOException, CryptoException {
-        int version = readHeader(input);
+        if (input.markSupported()) {
+            input.mark(HEADER_SIZE);
+        }
+        byte[] header = new byte[HEADER_SIZE];
+        int count = readHeader(input, header);
+        int version = count < HEADER_SIZE ? NO_CRYPT : parseHeader(header, 0);
         switch (version) {
             case NO_CRYPT:
-                return input;
+                if (input.markSupported()) {
+                    input.reset();
+                    return input;
+                }
+                PushbackInputStream pushback = new PushbackInputStream(input, HEADER_SIZE);
+                pushback.unread(header, 0, count);
+                return pushback;
             //XOR
             case 811:
             case 821:
@@ -126,7 +259,7 @@ public class L2Crypt {
             case 414:
                 BigInteger modulus = RSA_KEYS[version - 411][0];
                 BigInteger exponent = RSA_KEYS[version - 411][1];
-                return new L2Ver41xInputStream(input, modulus, exponent);
+                return new L2Ver41xInputStream(input, modulus, exponent, rsaExecutor, inflateBufferSize);
             default:
                 throw new CryptoException("Unsupported crypt version: " + version);
         }
@@ -137,9 +270,20 @@ public class L2Crypt {
     }
 
     public static OutputStream encrypt(OutputStream output, String fileName, int version) throws IOException, CryptoException {
+        return encrypt(output, fileName, version, -1);
+    }
+
+    /**
+     * @param size the exact number of bytes that will be written, or <code>-1</code> if unknown.
+     *             41x encoders stream compressed data straight to <code>output</code> when it is known.
+     */
+    public static OutputStream encrypt(OutputStream output, String fileName, int version, long size) throws IOException, CryptoException {
         if (version == NO_CRYPT) {
             return output;
         }
+        if (!isSupported(version)) {
+            throw new CryptoException("Unsupported version: " + version);
+        }
 
         writeHeader(output, version);
         switch (version) {
@@ -177,9 +321,678 @@ public class L2Crypt {
             case 412:
             case 413:
             case 414:
-                return new L2Ver41xOutputStream(output, publicModulus, publicExponent);
+                return new L2Ver41xOutputStream(output, publicModulus, publicExponent, rsaExecutor, size, deflateLevel, deflateStrategy);
             default:
                 throw new CryptoException("Unsupported version: " + version);
         }
     }
+
+    /**
+     * Opens one stream that encrypts written data to every output with the version of its key.
+     * <p>
+     * 41x and 61x outputs all use the public key, so data is deflated and RSA encrypted once
+     * and only the header and the Lame layer are added per output. Other versions are encrypted per output.
+     *
+     * @param outputs the outputs by version, closed when the returned stream is closed
+     *                or when the stream can't be opened
+     * @param size    the exact number of bytes that will be written, or <code>-1</code> if unknown
+     * @throws CryptoException if a version is not supported, before anything is written
+     * @see #encrypt(OutputStream, String, int, long)
+     */
+    public static OutputStream encrypt(Map<Integer, ? extends OutputStream> outputs, String fileName, long size) throws IOException, CryptoException {
+        List<OutputStream> streams = new ArrayList<>();
+        List<OutputStream> rsaOutputs = new ArrayList<>();
+        try {
+            for (Map.Entry<Integer, ? extends OutputStream> entry : outputs.entrySet()) {
+                Objects.requireNonNull(entry.getValue(), "stream");
+                if (entry.getKey() == null || !isSupported(entry.getKey())) {
+                    throw new CryptoException("Unsupported version: " + entry.getKey());
+                }
+            }
+
+            for (Map.Entry<Integer, ? extends OutputStream> entry : outputs.entrySet()) {
+                int version = entry.getKey();
+                OutputStream output = entry.getValue();
+                if (version / 100 == 4 || version / 100 == 6) {
+                    writeHeader(output, version);
+                    rsaOutputs.add(version >= 600 ? LameCrypt.wrapOutput(output) : output);
+                } else {
+                    streams.add(encrypt(output, fileName, version, size));
+                }
+            }
+            if (!rsaOutputs.isEmpty()) {
+                streams.add(new L2Ver41xOutputStream(new TeeOutputStream(rsaOutputs), publicModulus, publicExponent, rsaExecutor, size, deflateLevel, deflateStrategy));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (OutputStream output : outputs.values()) {
+                if (output == null) {
+                    continue;
+                }
+                try {
+                    output.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        return new TeeOutputStream(streams);
+    }
+
+    /**
+     * @return whether files of the version can be encrypted
+     * @see #encrypt(OutputStream, String, int, long)
+     */
+    public static boolean isSupported(int version) {
+        switch (version) {
+            case NO_CRYPT:
+            case 111:
+            case 121:
+            case 120:
+            case 811:
+            case 821:
+            case 820:
+            case 211:
+            case 212:
+            case 911:
+            case 912:
+            case 411:
+            case 412:
+            case 413:
+            case 414:
+            case 611:
+            case 612:
+            case 613:
+            case 614:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return whether payloads of the version can be processed with a {@link RandomAccessCipher}
+     */
+    public static boolean isRandomAccess(int version) {
+        switch (version) {
+            case NO_CRYPT:
+            case 111:
+            case 121:
+            case 120:
+            case 211:
+            case 212:
+            case 811:
+            case 821:
+            case 820:
+            case 911:
+            case 912:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param fileName   the name of the file, used by 121 and 821
+     * @param encryption whether the cipher encrypts or decrypts
+     * @throws CryptoException if payloads of the version are not random access
+     * @see #isRandomAccess(int)
+     */
+    public static RandomAccessCipher getRandomAccessCipher(int version, String fileName, boolean encryption) throws CryptoException {
+        RandomAccessCipher cipher;
+        switch (version) {
+            case NO_CRYPT:
+                return new RandomAccessCipher() {
+                    @Override
+                    public void process(long position, byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+                        System.arraycopy(src, srcOff, dst, dstOff, len);
+                    }
+
+                    @Override
+                    public void process(long position, ByteBuffer src, ByteBuffer dst) {
+                        RandomAccessCipher.checkBuffers(src, dst);
+                        if (dst != src) {
+                            dst.put(src);
+                        } else {
+                            src.position(src.limit());
+                        }
+                    }
+                };
+            //XOR
+            case 111:
+            case 811:
+                cipher = L2Ver1x1.getCipher(XOR_KEY_111);
+                break;
+            case 121:
+            case 821:
+                cipher = L2Ver1x1.getCipher(getXORKey121(fileName));
+                break;
+            case 120:
+            case 820:
+                cipher = L2Ver120.getCipher();
+                break;
+            //BLOWFISH
+            case 211:
+            case 911:
+                cipher = L2Ver21x.getCipher(encryption, BLOWFISH_KEY_211);
+                break;
+            case 212:
+            case 912:
+                cipher = L2Ver21x.getCipher(encryption, BLOWFISH_KEY_212);
+                break;
+            default:
+                throw new CryptoException("Not random access crypt version: " + version);
+        }
+
+        if (version >= 800) {
+            RandomAccessCipher lame = LameCrypt.getCipher();
+            cipher = encryption ? cipher.andThen(lame) : lame.andThen(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Returns a codec of the payload of a version, e.g. to decrypt data in buffers as it is received.
+     * Random access versions are processed in both directions, 41x and 61x payloads can be decrypted
+     * to their size prefixed deflate stream.
+     *
+     * @param fileName   the name of the file, used by 121 and 821
+     * @param encryption whether the codec encrypts or decrypts
+     * @throws CryptoException if the version is not supported in the direction
+     * @see RandomAccessCipher#codec(long)
+     * @see L2Ver41xBlockDecoder
+     */
+    public static BufferCodec getCodec(int version, String fileName, boolean encryption) throws CryptoException {
+        if (isRandomAccess(version)) {
+            return getRandomAccessCipher(version, fileName, encryption).codec(0);
+        }
+        if (!encryption && version >= 611 && version <= 614) {
+            BigInteger[] key = get41xKey(version);
+            return new L2Ver41xBlockDecoder(key[0], key[1], LameCrypt.getCipher());
+        }
+        if (!encryption && version >= 411 && version <= 414) {
+            BigInteger[] key = get41xKey(version);
+            return new L2Ver41xBlockDecoder(key[0], key[1]);
+        }
+        throw new CryptoException("Unsupported crypt version: " + version);
+    }
+
+    /**
+     * Decrypts a range of payload in place, in parallel for large ranges.
+     *
+     * @param position payload position of <code>b[off]</code>, must be block aligned
+     * @param len      must be a multiple of the block size
+     * @see #getRandomAccessCipher(int, String, boolean)
+     */
+    public static void decrypt(int version, String fileName, long position, byte[] b, int off, int len) throws CryptoException {
+        ParallelCrypt.process(getRandomAccessCipher(version, fileName, false), position, b, off, len);
+    }
+
+    /**
+     * Encrypts a range of payload in place, in parallel for large ranges.
+     *
+     * @param position payload position of <code>b[off]</code>, must be block aligned
+     * @param len      must be a multiple of the block size
+     * @see #getRandomAccessCipher(int, String, boolean)
+     */
+    public static void encrypt(int version, String fileName, long position, byte[] b, int off, int len) throws CryptoException {
+        ParallelCrypt.process(getRandomAccessCipher(version, fileName, true), position, b, off, len);
+    }
+
+    /**
+     * Decrypts the file to <code>target</code>. Random access versions are processed with positional
+     * reads and writes, in parallel chunks for large files, others are decrypted by stream.
+     * A trailing partial Blowfish block is dropped.
+     */
+    public static void decrypt(Path source, Path target) throws IOException, CryptoException {
+        String fileName = source.getFileName().toString();
+        try (FileChannel input = FileChannel.open(source, READ);
+             FileChannel output = FileChannel.open(target, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            int version = readHeader(input);
+
+            if (version == NO_CRYPT) {
+                transfer(input, output);
+            } else if (isRandomAccess(version)) {
+                RandomAccessCipher cipher = getRandomAccessCipher(version, fileName, false);
+                long length = input.size() - HEADER_SIZE;
+                ParallelCrypt.process(cipher, input, HEADER_SIZE, length - length % cipher.getBlockSize(), output, 0);
+            } else {
+                try (InputStream is = decrypt(Channels.newInputStream(input.position(0)), fileName)) {
+                    is.transferTo(Channels.newOutputStream(output));
+                }
+            }
+        }
+    }
+
+    /**
+     * Encrypts the file to <code>target</code>. Random access versions are processed with positional
+     * reads and writes, in parallel chunks for large files, others are encrypted by stream.
+     */
+    public static void encrypt(Path source, Path target, int version) throws IOException, CryptoException {
+        String fileName = target.getFileName().toString();
+        try (FileChannel input = FileChannel.open(source, READ);
+             FileChannel output = FileChannel.open(target, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            if (version == NO_CRYPT) {
+                transfer(input, output);
+            } else if (isRandomAccess(version)) {
+                writeHeader(output, version);
+                ParallelCrypt.process(getRandomAccessCipher(version, fileName, true), input, 0, input.size(), output, HEADER_SIZE);
+            } else {
+                try (OutputStream os = encrypt(Channels.newOutputStream(output), fileName, version, input.size())) {
+                    Channels.newInputStream(input).transferTo(os);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decrypts the file into a new buffer. Random access versions are processed
+     * from the memory mapped file, in parallel chunks for large files, others are decrypted by stream.
+     * A trailing partial Blowfish block is dropped.
+     * <p>
+     * On Windows a mapped file can't be deleted or replaced until the mapping is garbage collected.
+     */
+    public static ByteBuffer decrypt(Path path) throws IOException, CryptoException {
+        String fileName = path.getFileName().toString();
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            int version = readHeader(channel);
+            if (!isRandomAccess(version)) {
+                try (InputStream input = decrypt(Channels.newInputStream(channel.position(0)), fileName)) {
+                    return ByteBuffer.wrap(input.readAllBytes());
+                }
+            }
+
+            RandomAccessCipher cipher = getRandomAccessCipher(version, fileName, false);
+            ByteBuffer payload = mapPayload(channel, version, cipher.getBlockSize());
+            ByteBuffer result = ByteBuffer.allocate(payload.remaining());
+            ParallelCrypt.process(cipher, 0, payload, result);
+            return result.flip();
+        }
+    }
+
+    /**
+     * Decrypts the file into <code>dst</code>, heap and direct buffers are supported.
+     * Random access versions are processed from the memory mapped file,
+     * in parallel chunks for large files, others are decrypted by stream.
+     * A trailing partial Blowfish block is dropped.
+     * On Windows a mapped file can't be deleted or replaced until the mapping is garbage collected.
+     *
+     * @return the number of bytes decrypted, the position of <code>dst</code> is advanced by it
+     * @throws BufferOverflowException if the decrypted data does not fit in <code>dst</code>
+     */
+    public static int decrypt(Path path, ByteBuffer dst) throws IOException, CryptoException {
+        String fileName = path.getFileName().toString();
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            int version = readHeader(channel);
+            int start = dst.position();
+            if (isRandomAccess(version)) {
+                RandomAccessCipher cipher = getRandomAccessCipher(version, fileName, false);
+                ParallelCrypt.process(cipher, 0, mapPayload(channel, version, cipher.getBlockSize()), dst);
+            } else {
+                try (InputStream input = decrypt(Channels.newInputStream(channel.position(0)), fileName)) {
+                    byte[] buffer = new byte[0x2000];
+                    for (int r; (r = input.read(buffer)) >= 0; ) {
+                        dst.put(buffer, 0, r);
+                    }
+                }
+            }
+            return dst.position() - start;
+        }
+    }
+
+    /**
+     * Encrypts the bytes remaining in <code>src</code> to <code>target</code>, advancing its position.
+     * Random access versions are written with positional writes,
+     * in parallel chunks for large buffers, others are encrypted by stream.
+     */
+    public static void encrypt(ByteBuffer src, Path target, int version) throws IOException, CryptoException {
+        String fileName = target.getFileName().toString();
+        try (FileChannel output = FileChannel.open(target, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            if (isRandomAccess(version)) {
+                RandomAccessCipher cipher = getRandomAccessCipher(version, fileName, true);
+                long offset = 0;
+                if (version != NO_CRYPT) {
+                    writeHeader(output, version);
+                    offset = HEADER_SIZE;
+                }
+                ParallelCrypt.process(cipher, src, output, offset);
+            } else {
+                try (OutputStream os = encrypt(Channels.newOutputStream(output), fileName, version, src.remaining())) {
+                    Channels.newChannel(os).write(src);
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the whole blocks of the payload of a file.
+     */
+    private static ByteBuffer mapPayload(FileChannel channel, int version, int blockSize) throws IOException {
+        long offset = version == NO_CRYPT ? 0 : HEADER_SIZE;
+        long length = channel.size() - offset;
+        length -= length % blockSize;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("File too large: " + channel.size());
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /**
+     * Opens the payload of a random access version file for reading, or for reading and writing
+     * if <code>options</code> contain {@link StandardOpenOption#WRITE}. Only the blocks that are
+     * read or written are processed, so a part of a large file can be accessed without
+     * decrypting everything before it. A file without a header is opened as {@link #NO_CRYPT}.
+     *
+     * @param options {@link FileChannel#open} options, {@link StandardOpenOption#APPEND} is not supported
+     * @throws CryptoException         if the version of the file is not random access
+     * @throws IllegalArgumentException if <code>options</code> contain {@link StandardOpenOption#APPEND}
+     * @see #isRandomAccess(int)
+     */
+    public static SeekableByteChannel newByteChannel(Path path, OpenOption... options) throws IOException, CryptoException {
+        return openByteChannel(path, null, options);
+    }
+
+    /**
+     * Opens the payload of a random access version file like {@link #newByteChannel(Path, OpenOption...)}.
+     * The header of <code>version</code> is written to a new or empty file.
+     *
+     * @throws CryptoException if the version is not random access or the file has another version
+     */
+    public static SeekableByteChannel newByteChannel(Path path, int version, OpenOption... options) throws IOException, CryptoException {
+        if (!isRandomAccess(version)) {
+            throw new CryptoException("Not random access crypt version: " + version);
+        }
+        return openByteChannel(path, version, options);
+    }
+
+    /**
+     * @param expectedVersion version the file must have, <code>null</code> to accept any
+     */
+    private static SeekableByteChannel openByteChannel(Path path, Integer expectedVersion, OpenOption[] options) throws IOException, CryptoException {
+        Set<OpenOption> openOptions = new HashSet<>(Arrays.asList(options));
+        if (openOptions.contains(APPEND)) {
+            throw new IllegalArgumentException("APPEND not supported");
+        }
+        openOptions.add(READ);
+        boolean writable = openOptions.contains(WRITE);
+
+        String fileName = path.getFileName().toString();
+        FileChannel channel = FileChannel.open(path, openOptions);
+        try {
+            int version = readHeader(channel);
+            if (version == NO_CRYPT && expectedVersion != null && writable && channel.size() == 0) {
+                writeHeader(channel, expectedVersion);
+                version = expectedVersion;
+            }
+
+            if (expectedVersion != null && version != expectedVersion) {
+                throw new CryptoException("Crypt version " + version + ", expected " + expectedVersion);
+            }
+            if (!isRandomAccess(version)) {
+                throw new CryptoException("Not random access crypt version: " + version);
+            }
+
+            return new CryptChannel(channel, version == NO_CRYPT ? 0 : HEADER_SIZE,
+                    getRandomAccessCipher(version, fileName, false),
+                    writable ? getRandomAccessCipher(version, fileName, true) : null);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the seek index of a 41x or 61x file, read from its sidecar file if that is newer
+     * than the file and was built for the same version, payload size and <code>span</code>,
+     * otherwise built and stored in the sidecar.
+     *
+     * @param span distance between restart points, {@link L2Ver41xIndex#DEFAULT_SPAN} is a reasonable one
+     * @throws CryptoException if the file is not 41x or 61x
+     * @see L2Ver41xIndex#getSidecar(Path)
+     */
+    public static L2Ver41xIndex getIndex(Path path, long span) throws IOException, CryptoException {
+        Path sidecar = L2Ver41xIndex.getSidecar(path);
+        if (Files.exists(sidecar) && Files.getLastModifiedTime(sidecar).compareTo(Files.getLastModifiedTime(path)) >= 0) {
+            int version;
+            try (FileChannel channel = FileChannel.open(path, READ)) {
+                version = readHeader(channel);
+            }
+            try {
+                L2Ver41xIndex index = L2Ver41xIndex.read(sidecar);
+                if (index.getVersion() == version &&
+                        index.getPayloadSize() == Files.size(path) - HEADER_SIZE &&
+                        index.getSpan() == span) {
+                    return index;
+                }
+            } catch (IOException ignore) {
+                // unreadable or of an older format, rebuild it
+            }
+        }
+
+        L2Ver41xIndex index = buildIndex(path, span);
+        index.write(sidecar);
+        return index;
+    }
+
+    /**
+     * Builds the seek index of a 41x or 61x file by one pass over it.
+     *
+     * @param span distance between restart points, {@link L2Ver41xIndex#DEFAULT_SPAN} is a reasonable one
+     * @throws CryptoException if the file is not 41x or 61x
+     */
+    public static L2Ver41xIndex buildIndex(Path path, long span) throws IOException, CryptoException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            int version = readHeader(channel);
+            BigInteger[] key = get41xKey(version);
+            InputStream input = new BufferedInputStream(Channels.newInputStream(channel.position(HEADER_SIZE)), 0x10000);
+            if (version >= 600) {
+                input = new LameCryptInputStream(input);
+            }
+            return L2Ver41xIndex.build(input, key[0], key[1], span, version, channel.size() - HEADER_SIZE);
+        }
+    }
+
+    /**
+     * Opens the decrypted data of a 41x or 61x file at <code>position</code>,
+     * decrypting and inflating at most one index span before it.
+     *
+     * @param index the index of the file
+     * @throws CryptoException if the file is not 41x or 61x
+     */
+    public static InputStream decrypt(Path path, L2Ver41xIndex index, long position) throws IOException, CryptoException {
+        FileChannel channel = FileChannel.open(path, READ);
+        try {
+            int version = readHeader(channel);
+            BigInteger[] key = get41xKey(version);
+            long blockOffset = index.getBlockOffset(position);
+            InputStream input = Channels.newInputStream(channel.position(HEADER_SIZE + blockOffset));
+            if (version >= 600) {
+                input = new LameCryptInputStream(input, blockOffset);
+            }
+            return index.open(input, key[0], key[1], position);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Re-encrypts a 41x or 61x file with the public key under the header of <code>version</code>.
+     * Blocks are moved from one key to the other without inflating, the compressed data is kept as it is.
+     * <p>
+     * The result is written to a temporary file next to <code>target</code> and moved over it when complete,
+     * so <code>target</code> is left untouched on failure and may be the same file as <code>source</code>.
+     *
+     * @throws CryptoException if the file or <code>version</code> is not 41x or 61x
+     * @see #set41xPublicKey(BigInteger, BigInteger)
+     */
+    public static void rekey(Path source, Path target, int version) throws IOException, CryptoException {
+        get41xKey(version);
+        Path temp = null;
+        try {
+            try (InputStream is = new BufferedInputStream(Files.newInputStream(source), 0x10000)) {
+                int sourceVersion = readHeader(is);
+                BigInteger[] key = get41xKey(sourceVersion);
+                InputStream input = is;
+                if (sourceVersion >= 600) {
+                    input = new LameCryptInputStream(input);
+                }
+
+                temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+                try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp), 0x10000)) {
+                    writeHeader(os, version);
+                    L2Ver41xRekeyer.rekey(input, version >= 600 ? LameCrypt.wrapOutput(os) : os,
+                            key[0], key[1], publicModulus, publicExponent, rsaExecutor);
+                }
+            }
+            Files.move(temp, target, REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+            throw e;
+        }
+    }
+
+    private static BigInteger[] get41xKey(int version) throws CryptoException {
+        if (version >= 611 && version <= 614) {
+            version -= 200;
+        }
+        if (version < 411 || version > 414) {
+            throw new CryptoException("Not 41x/61x crypt version: " + version);
+        }
+        return RSA_KEYS[version - 411];
+    }
+
+    /**
+     * Reads the headers of all regular files under <code>root</code>, directories are listed and
+     * headers are read in parallel in the common pool, as managed blocking so that other users of
+     * the pool are not starved. Only the first {@link #HEADER_SIZE} bytes of each file are read.
+     * A file or subdirectory that can't be read is cataloged with {@link CatalogEntry#getError()}
+     * instead of failing the scan.
+     *
+     * @return the entries sorted by path
+     * @throws IOException if <code>root</code> can't be listed
+     */
+    public static List<CatalogEntry> scan(Path root) throws IOException {
+        List<CatalogEntry> entries = new ArrayList<>(ForkJoinPool.commonPool().invoke(new ScanTask(root, list(root))));
+        entries.sort(Comparator.comparing(CatalogEntry::getPath));
+        return Collections.unmodifiableList(entries);
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(children::add);
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+        return children;
+    }
+
+    private static CatalogEntry scanFile(Path file) {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            int version = readHeader(channel);
+            return new CatalogEntry(file, channel.size(), version, version == NO_CRYPT ? 0 : HEADER_SIZE, null);
+        } catch (IOException e) {
+            return new CatalogEntry(file, -1, NO_CRYPT, 0, e);
+        }
+    }
+
+    /**
+     * Catalogs a directory, or the given children of it, forking a task per subdirectory.
+     * The file system is accessed in {@link #block()}, the task is its own {@link ForkJoinPool.ManagedBlocker}.
+     */
+    private static final class ScanTask extends RecursiveTask<List<CatalogEntry>> implements ForkJoinPool.ManagedBlocker {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path directory;
+        private transient List<Path> children;
+        private final transient List<CatalogEntry> entries = new ArrayList<>();
+        private final transient List<Path> subdirectories = new ArrayList<>();
+        private transient boolean scanned;
+
+        ScanTask(Path directory, List<Path> children) {
+            this.directory = directory;
+            this.children = children;
+        }
+
+        @Override
+        protected List<CatalogEntry> compute() {
+            try {
+                ForkJoinPool.managedBlock(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                entries.add(new CatalogEntry(directory, -1, NO_CRYPT, 0, new InterruptedIOException()));
+                return entries;
+            }
+
+            List<ScanTask> subtasks = new ArrayList<>();
+            for (Path subdirectory : subdirectories) {
+                ScanTask subtask = new ScanTask(subdirectory, null);
+                subtask.fork();
+                subtasks.add(subtask);
+            }
+            for (ScanTask subtask : subtasks) {
+                entries.addAll(subtask.join());
+            }
+            return entries;
+        }
+
+        /**
+         * Lists the directory unless the children are given and reads the headers of its files.
+         */
+        @Override
+        public boolean block() {
+            scanned = true;
+            if (children == null) {
+                try {
+                    children = list(directory);
+                } catch (IOException e) {
+                    entries.add(new CatalogEntry(directory, -1, NO_CRYPT, 0, e));
+                    return true;
+                }
+            }
+
+            for (Path child : children) {
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    subdirectories.add(child);
+                } else if (Files.isRegularFile(child)) {
+                    entries.add(scanFile(child));
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return scanned;
+        }
+    }
+
+    /**
+     * @return the version of the file, {@link #NO_CRYPT} for a file shorter than a header
+     */
+    private static int readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return NO_CRYPT;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ParallelCrypt.readFully(channel, header, 0);
+        return parseHeader(header.array(), 0);
+    }
+
+    private static void writeHeader(FileChannel channel, int version) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(HEADER_SIZE);
+        writeHeader(header, version);
+        ParallelCrypt.writeFully(channel, ByteBuffer.wrap(header.toByteArray()), 0);
+    }
+
+    private static void transfer(FileChannel input, FileChannel output) throws IOException {
+        long size = input.size();
+        for (long position = 0; position < size; ) {
+            position += input.transferTo(position, size - position, output);
+        }
+    }
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a payload into block aligned chunks and processes them on the common fork/join pool.
+ */
+final class ParallelCrypt {
+    /**
+     * Payloads shorter than this are processed on the calling thread.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 20;
+    static final int CHUNK_SIZE = 1 << 18;
+
+    private ParallelCrypt() {
+    }
+
+    interface ChunkAction {
+        void process(long position, int len) throws IOException;
+    }
+
+    static void forEachChunk(long length, int blockSize, ChunkAction action) throws IOException {
+        int chunkSize = CHUNK_SIZE - CHUNK_SIZE % blockSize;
+
+        if (length < PARALLEL_THRESHOLD) {
+            for (long position = 0; position < length; position += chunkSize) {
+                action.process(position, (int) Math.min(chunkSize, length - position));
+            }
+            return;
+        }
+
+        try {
+            ForkJoinPool.commonPool().invoke(new ChunkTask(0, length, chunkSize, action));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static void process(RandomAccessCipher cipher, long position, byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        try {
+            forEachChunk(len, cipher.getBlockSize(), (chunkPosition, chunkLen) -> {
+                int chunkOff = off + (int) chunkPosition;
+                cipher.process(position + chunkPosition, b, chunkOff, b, chunkOff, chunkLen);
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Processes all bytes remaining in <code>src</code> into <code>dst</code>, advancing both.
+     * A trailing partial block of <code>src</code> is zero padded.
+     * <code>src</code> and <code>dst</code> may be the same buffer for in-place operation
+     * if the remaining length is a multiple of the block size.
+     *
+     * @throws IllegalArgumentException if the in-place length is not block aligned
+     */
+    static void process(RandomAccessCipher cipher, long position, ByteBuffer src, ByteBuffer dst) {
+        int blockSize = cipher.getBlockSize();
+        int len = src.remaining();
+        int alignedLen = len - len % blockSize;
+        if (alignedLen < len) {
+            if (dst == src) {
+                throw new IllegalArgumentException("in-place length must be a multiple of the block size");
+            }
+            if (dst.remaining() < alignedLen + blockSize) {
+                throw new BufferOverflowException();
+            }
+        }
+
+        int srcPos = src.position();
+        int dstPos = dst.position();
+        try {
+            forEachChunk(alignedLen, blockSize, (chunkPosition, chunkLen) -> {
+                ByteBuffer chunkSrc = src.duplicate();
+                chunkSrc.limit(srcPos + (int) chunkPosition + chunkLen).position(srcPos + (int) chunkPosition);
+                ByteBuffer chunkDst = chunkSrc;
+                if (dst != src) {
+                    chunkDst = dst.duplicate();
+                    chunkDst.position(dstPos + (int) chunkPosition);
+                }
+                cipher.process(position + chunkPosition, chunkSrc, chunkDst);
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        src.position(srcPos + alignedLen);
+        if (dst != src) {
+            dst.position(dstPos + alignedLen);
+        }
+
+        if (alignedLen < len) {
+            byte[] block = new byte[blockSize];
+            src.get(block, 0, len - alignedLen);
+            cipher.process(position + alignedLen, block, 0, block, 0, blockSize);
+            dst.put(block);
+        }
+    }
+
+    /**
+     * Processes <code>length</code> bytes of payload at <code>inputOffset</code> to the output at
+     * <code>outputOffset</code> with positional reads and writes, in parallel chunks for large payloads.
+     * A trailing partial block of the input is zero padded.
+     */
+    static void process(RandomAccessCipher cipher, FileChannel input, long inputOffset, long length,
+                        FileChannel output, long outputOffset) throws IOException {
+        int blockSize = cipher.getBlockSize();
+        forEachChunk(length, blockSize, (position, len) -> {
+            ByteBuffer buffer = ByteBuffer.allocate((len + blockSize - 1) / blockSize * blockSize);
+            buffer.limit(len);
+            readFully(input, buffer, inputOffset + position);
+            buffer.flip();
+            processChunk(cipher, position, buffer, output, outputOffset + position);
+        });
+    }
+
+    /**
+     * Processes all bytes remaining in <code>src</code> to the output at <code>outputOffset</code>
+     * with positional writes, in parallel chunks for large buffers, advancing <code>src</code>.
+     * A trailing partial block is zero padded.
+     */
+    static void process(RandomAccessCipher cipher, ByteBuffer src, FileChannel output, long outputOffset) throws IOException {
+        int srcPos = src.position();
+        int len = src.remaining();
+        forEachChunk(len, cipher.getBlockSize(), (position, chunkLen) -> {
+            ByteBuffer chunk = src.duplicate();
+            chunk.limit(srcPos + (int) position + chunkLen).position(srcPos + (int) position);
+            processChunk(cipher, position, chunk, output, outputOffset + position);
+        });
+        src.position(srcPos + len);
+    }
+
+    private static void processChunk(RandomAccessCipher cipher, long position, ByteBuffer src,
+                                     FileChannel output, long outputPosition) throws IOException {
+        int blockSize = cipher.getBlockSize();
+        ByteBuffer dst = ByteBuffer.allocate((src.remaining() + blockSize - 1) / blockSize * blockSize);
+        process(cipher, position, src, dst);
+        dst.flip();
+        writeFully(output, dst, outputPosition);
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            position += count;
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long from;
+        private final long to;
+        private final int chunkSize;
+        private final transient ChunkAction action;
+
+        ChunkTask(long from, long to, int chunkSize, ChunkAction action) {
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                try {
+                    action.process(from, (int) (to - from));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+
+            long middle = from + Math.max(1, (to - from) / 2 / chunkSize) * chunkSize;
+            invokeAll(new ChunkTask(from, middle, chunkSize, action),
+                    new ChunkTask(middle, to, chunkSize, action));
+        }
+    }
+}
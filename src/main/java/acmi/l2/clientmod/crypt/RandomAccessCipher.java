@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * Length-preserving cipher layer whose output at any payload position depends
+ * only on the input at the same position. A payload may therefore be processed
+ * in any order, in parts, or by several threads at once.
+ * <p>
+ * Implementations are thread-safe.
+ */
+@FunctionalInterface
+public interface RandomAccessCipher {
+    /**
+     * @return the cipher block size, <code>position</code> and <code>len</code>
+     * passed to {@link #process} must be multiples of it.
+     */
+    default int getBlockSize() {
+        return 1;
+    }
+
+    /**
+     * Processes <code>len</code> bytes of payload starting at payload position <code>position</code>,
+     * i.e. the offset just past the file header.
+     *
+     * @param position payload position of <code>src[srcOff]</code>
+     * @param src      the input, may be the same array as <code>dst</code>
+     * @param dst      the output
+     * @throws IllegalArgumentException if <code>position</code> or <code>len</code> are not block aligned
+     */
+    void process(long position, byte[] src, int srcOff, byte[] dst, int dstOff, int len);
+
+    /**
+     * Processes all bytes remaining in <code>src</code> into <code>dst</code>, heap and direct
+     * buffers are supported. The positions of both buffers are advanced by the number of processed
+     * bytes, <code>src</code> and <code>dst</code> may be the same buffer for in-place operation.
+     * <p>
+     * The default implementation processes array backed buffers directly and others through a scratch array.
+     *
+     * @param position payload position of the first remaining byte of <code>src</code>
+     * @throws IllegalArgumentException if <code>position</code> or the number of bytes are not block aligned
+     */
+    default void process(long position, ByteBuffer src, ByteBuffer dst) {
+        int len = checkBuffers(src, dst);
+        int srcPos = src.position();
+        int dstPos = dst.position();
+
+        if (src.hasArray() && dst.hasArray()) {
+            process(position, src.array(), src.arrayOffset() + srcPos, dst.array(), dst.arrayOffset() + dstPos, len);
+        } else {
+            int blockSize = getBlockSize();
+            byte[] buffer = new byte[Math.max(blockSize, Math.min(len, 0x2000) / blockSize * blockSize)];
+            ByteBuffer in = src.duplicate();
+            ByteBuffer out = dst.duplicate();
+            for (int off = 0; off < len; ) {
+                int count = Math.min(len - off, buffer.length);
+                in.get(buffer, 0, count);
+                process(position + off, buffer, 0, buffer, 0, count);
+                out.put(buffer, 0, count);
+                off += count;
+            }
+        }
+
+        src.position(srcPos + len);
+        if (dst != src) {
+            dst.position(dstPos + len);
+        }
+    }
+
+    /**
+     * @param position payload position of the first byte the codec is given, must be block aligned
+     * @return a codec that processes consecutive payload with this cipher, whole blocks at a time
+     */
+    default BufferCodec codec(long position) {
+        if (position % getBlockSize() != 0) {
+            throw new IllegalArgumentException("position must be a multiple of " + getBlockSize());
+        }
+
+        RandomAccessCipher cipher = this;
+        return new BufferCodec() {
+            private long next = position;
+
+            @Override
+            public int transform(ByteBuffer src, ByteBuffer dst) {
+                int len = src.remaining();
+                if (dst != src) {
+                    len = Math.min(len, dst.remaining());
+                }
+                len -= len % cipher.getBlockSize();
+
+                int limit = src.limit();
+                src.limit(src.position() + len);
+                try {
+                    cipher.process(next, src, dst);
+                } finally {
+                    src.limit(limit);
+                }
+                next += len;
+                return len;
+            }
+        };
+    }
+
+    /**
+     * Checks the buffers passed to {@link #process(long, ByteBuffer, ByteBuffer)}.
+     *
+     * @return the number of bytes to process
+     * @throws ReadOnlyBufferException  if <code>dst</code> is read-only
+     * @throws BufferOverflowException if <code>dst</code> has less bytes remaining than <code>src</code>
+     */
+    static int checkBuffers(ByteBuffer src, ByteBuffer dst) {
+        if (dst.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+
+        int len = src.remaining();
+        if (dst != src && len > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        return len;
+    }
+
+    /**
+     * @return a cipher that applies this cipher and then <code>next</code> to its output
+     */
+    default RandomAccessCipher andThen(RandomAccessCipher next) {
+        RandomAccessCipher first = this;
+        return new RandomAccessCipher() {
+            @Override
+            public int getBlockSize() {
+                return Math.max(first.getBlockSize(), next.getBlockSize());
+            }
+
+            @Override
+            public void process(long position, byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+                first.process(position, src, srcOff, dst, dstOff, len);
+                next.process(position, dst, dstOff, dst, dstOff, len);
+            }
+
+            @Override
+            public void process(long position, ByteBuffer src, ByteBuffer dst) {
+                int len = checkBuffers(src, dst);
+                ByteBuffer processed = dst.duplicate();
+                processed.limit(processed.position() + len);
+                first.process(position, src, dst);
+                next.process(position, processed, processed);
+            }
+        };
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Writes the same data to several streams.
+ */
+final class TeeOutputStream extends FinishableOutputStream {
+    private final List<OutputStream> outputs;
+
+    private boolean finished;
+
+    TeeOutputStream(List<OutputStream> outputs) {
+        super(null);
+        this.outputs = List.copyOf(outputs);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (finished) {
+            throw new IOException("write beyond end of stream");
+        }
+
+        for (OutputStream output : outputs) {
+            output.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (finished) {
+            throw new IOException("write beyond end of stream");
+        }
+
+        for (OutputStream output : outputs) {
+            output.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (OutputStream output : outputs) {
+            output.flush();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        finished = true;
+        for (OutputStream output : outputs) {
+            if (output instanceof FinishableOutputStream) {
+                ((FinishableOutputStream) output).finish();
+            } else {
+                output.flush();
+            }
+        }
+    }
+
+    /**
+     * Closes every stream, even if some fail, and rethrows the first failure.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        try {
+            finish();
+        } catch (IOException e) {
+            failure = e;
+        }
+        for (OutputStream output : outputs) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
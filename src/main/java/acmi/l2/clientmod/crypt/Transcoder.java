@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt;
+
+import acmi.l2.clientmod.crypt.rsa.L2Ver41xInputStream;
+import acmi.l2.clientmod.crypt.rsa.L2Ver41xOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Re-encrypts a directory tree into another one on a pool of worker threads.
+ * <p>
+ * Target versions are chosen by glob rules, files matching no rule are copied unchanged.
+ * A file that fails is reported and skipped, the rest of the tree is still processed.
+ */
+public final class Transcoder {
+    public static final long DEFAULT_MEMORY_LIMIT = 1L << 28;
+
+    private final List<Map.Entry<String, Integer>> rules = new ArrayList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+    private Listener listener = new Listener() {
+    };
+
+    /**
+     * Files matching <code>glob</code> are encrypted with <code>version</code>.
+     * The glob is matched against the path relative to the source tree and against the file name,
+     * the first matching rule wins.
+     *
+     * @param version the target version, {@link L2Crypt#NO_CRYPT} to store decrypted files
+     * @throws IllegalArgumentException if the version is not supported
+     * @see L2Crypt#isSupported(int)
+     */
+    public void addRule(String glob, int version) {
+        if (!L2Crypt.isSupported(version)) {
+            throw new IllegalArgumentException("Unsupported version: " + version);
+        }
+        rules.add(Map.entry(Objects.requireNonNull(glob, "glob"), version));
+    }
+
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Limits compressed data held in memory by 41x/61x encoders working at the same time.
+     * A file waits for its share before it is started.
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        if (memoryLimit < 1024) {
+            throw new IllegalArgumentException("memory limit too small: " + memoryLimit);
+        }
+        this.memoryLimit = memoryLimit;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = Objects.requireNonNull(listener, "listener");
+    }
+
+    /**
+     * Transcodes all regular files under <code>source</code> to the same relative paths under <code>target</code>.
+     *
+     * @return the report of the finished run, failed files are listed in {@link Report#getFailures()}
+     * @throws IOException if the source tree can't be listed
+     */
+    public Report transcode(Path source, Path target) throws IOException, InterruptedException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(source)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        List<Map.Entry<PathMatcher, Integer>> policy = new ArrayList<>();
+        for (Map.Entry<String, Integer> rule : rules) {
+            policy.add(Map.entry(source.getFileSystem().getPathMatcher("glob:" + rule.getKey()), rule.getValue()));
+        }
+
+        int memory = (int) Math.min(Integer.MAX_VALUE, memoryLimit >> 10);
+        Semaphore semaphore = new Semaphore(memory);
+        Report report = new Report(files.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Path file : files) {
+                Path relative = source.relativize(file);
+                Integer version = policy.stream()
+                        .filter(e -> e.getKey().matches(relative) || e.getKey().matches(relative.getFileName()))
+                        .map(Map.Entry::getValue)
+                        .findFirst()
+                        .orElse(null);
+                Path out = target.resolve(relative.toString());
+                executor.execute(() -> {
+                    try {
+                        long size = Files.size(file);
+                        int permits = version != null && (version / 100 == 4 || version / 100 == 6) ?
+                                (int) Math.min(memory, (Math.min(size, L2Ver41xOutputStream.SPILL_THRESHOLD) >> 10) + 1) :
+                                0;
+                        semaphore.acquire(permits);
+                        try {
+                            transcode(file, out, version);
+                        } finally {
+                            semaphore.release(permits);
+                        }
+                        report.completed(size);
+                        listener.completed(file, report);
+                    } catch (Exception e) {
+                        if (e instanceof InterruptedException) {
+                            Thread.currentThread().interrupt();
+                        }
+                        report.failed(file, e);
+                        listener.failed(file, e, report);
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        } finally {
+            report.finish();
+        }
+        return report;
+    }
+
+    private static void transcode(Path source, Path target, Integer version) throws IOException, CryptoException {
+        Path parent = target.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        if (version == null) {
+            Files.copy(source, target, REPLACE_EXISTING);
+            return;
+        }
+
+        String fileName = source.getFileName().toString();
+        try (InputStream fin = new BufferedInputStream(Files.newInputStream(source));
+             OutputStream fout = Files.newOutputStream(target);
+             InputStream is = L2Crypt.decrypt(fin, fileName);
+             OutputStream os = L2Crypt.encrypt(new BufferedOutputStream(fout), fileName, version, getSize(source, fin, is))) {
+            is.transferTo(os);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the size of the decrypted data if known before reading it, <code>-1</code> otherwise
+     */
+    private static long getSize(Path source, InputStream input, InputStream decrypted) throws IOException {
+        if (decrypted instanceof L2Ver41xInputStream) {
+            return ((L2Ver41xInputStream) decrypted).getSize() & 0xffffffffL;
+        }
+        if (decrypted == input) {
+            // NO_CRYPT
+            return Files.size(source);
+        }
+        return -1;
+    }
+
+    /**
+     * Receives results on worker threads as files finish.
+     */
+    public interface Listener {
+        default void completed(Path source, Report report) {
+        }
+
+        default void failed(Path source, Exception e, Report report) {
+        }
+    }
+
+    /**
+     * Progress of a run, updated while it goes.
+     */
+    public static final class Report {
+        private final int totalFiles;
+        private final AtomicInteger completedFiles = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private final Map<Path, Exception> failures = new ConcurrentHashMap<>();
+        private final long start = System.nanoTime();
+        private volatile long end;
+
+        Report(int totalFiles) {
+            this.totalFiles = totalFiles;
+        }
+
+        void completed(long size) {
+            bytes.addAndGet(size);
+            completedFiles.incrementAndGet();
+        }
+
+        void failed(Path source, Exception e) {
+            failures.put(source, e);
+        }
+
+        void finish() {
+            end = System.nanoTime();
+        }
+
+        public int getTotalFiles() {
+            return totalFiles;
+        }
+
+        public int getCompletedFiles() {
+            return completedFiles.get();
+        }
+
+        public int getFailedFiles() {
+            return failures.size();
+        }
+
+        /**
+         * @return source bytes of completed files
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getElapsedNanos() {
+            long end = this.end;
+            return (end != 0 ? end : System.nanoTime()) - start;
+        }
+
+        /**
+         * @return source bytes of completed files per second
+         */
+        public double getThroughput() {
+            long elapsed = getElapsedNanos();
+            return elapsed == 0 ? 0 : getBytes() * 1e9 / elapsed;
+        }
+
+        public Map<Path, Exception> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        @Override
+        public String toString() {
+            return getCompletedFiles() + "/" + totalFiles + " files, " + getFailedFiles() + " failed, " +
+                    getBytes() + " bytes in " + getElapsedNanos() / 1000000 + " ms";
+        }
+    }
+}
@@ -21,7 +21,56 @@
  */
 package acmi.l2.clientmod.crypt.blowfish;
 
+import acmi.l2.clientmod.crypt.CryptoException;
+import acmi.l2.clientmod.crypt.RandomAccessCipher;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
 public interface L2Ver21x {
+    int BLOCK_SIZE = 8;
+
     byte[] BLOWFISH_KEY_211 = "31==-%&@!^+][;'.]94-\0".getBytes();
     byte[] BLOWFISH_KEY_212 = "[;'.]94-&@%!^+]-31==\0".getBytes();
+
+    /**
+     * @return the ECB cipher of 211/212 payloads
+     */
+    static RandomAccessCipher getCipher(boolean encryption, byte[] key) {
+        BlowfishEngine blowfish = new BlowfishEngine();
+        blowfish.init(encryption, key);
+        return new RandomAccessCipher() {
+            @Override
+            public int getBlockSize() {
+                return BLOCK_SIZE;
+            }
+
+            @Override
+            public void process(long position, byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+                if (position % BLOCK_SIZE != 0 || len % BLOCK_SIZE != 0) {
+                    throw new IllegalArgumentException("position and length must be multiples of " + BLOCK_SIZE);
+                }
+
+                try {
+                    blowfish.processBlocks(src, srcOff, dst, dstOff, len / BLOCK_SIZE);
+                } catch (GeneralSecurityException e) {
+                    throw new CryptoException(e);
+                }
+            }
+
+            @Override
+            public void process(long position, ByteBuffer src, ByteBuffer dst) {
+                if (position % BLOCK_SIZE != 0 || src.remaining() % BLOCK_SIZE != 0) {
+                    throw new IllegalArgumentException("position and length must be multiples of " + BLOCK_SIZE);
+                }
+
+                RandomAccessCipher.checkBuffers(src, dst);
+                try {
+                    blowfish.processBlocks(src, dst);
+                } catch (GeneralSecurityException e) {
+                    throw new CryptoException(e);
+                }
+            }
+        };
+    }
 }
@@ -24,6 +24,7 @@ package acmi.l2.clientmod.crypt.blowfish;
 import acmi.l2.clientmod.crypt.CryptoException;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -34,8 +35,8 @@ public final class L2Ver21xInputStream extends InputStream implements L2Ver21x {
     private final DataInputStream in;
     private final BlowfishEngine blowfish = new BlowfishEngine();
 
-    private final byte[] readBuffer = new byte[8];
-    private final ByteBuffer dataBuffer = ByteBuffer.allocate(8);
+    private final byte[] readBuffer = new byte[BLOCK_SIZE];
+    private final ByteBuffer dataBuffer = ByteBuffer.allocate(BLOCK_SIZE);
 
     {
         dataBuffer.position(dataBuffer.limit());
@@ -48,18 +49,76 @@ public final class L2Ver21xInputStream extends InputStream implements L2Ver21x {
 
     @Override
     public int read() throws IOException {
-        if (dataBuffer.position() == dataBuffer.limit()) {
-            in.readFully(readBuffer);
-            dataBuffer.clear();
-            try {
-                blowfish.processBlock(readBuffer, 0, dataBuffer.array(), dataBuffer.arrayOffset());
-            } catch (GeneralSecurityException e) {
-                throw new CryptoException(e);
-            }
+        if (dataBuffer.position() == dataBuffer.limit() && !fillBuffer()) {
+            throw new EOFException();
         }
         return dataBuffer.get() & 0xff;
     }
 
+    /**
+     * Reads up to <code>len</code> bytes of data into an array of bytes.
+     * <p>
+     * Whole blocks are read from the underlying stream directly into <code>b</code>
+     * and decrypted in place, only a request shorter than a block goes through
+     * the internal block buffer.
+     *
+     * @return the total number of bytes read into the buffer, or
+     * <code>-1</code> if the end of the stream has been reached on a block boundary.
+     * @throws EOFException if the stream ends in the middle of a block.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+
+        int read = Math.min(len, available());
+        dataBuffer.get(b, off, read);
+        off += read;
+        len -= read;
+
+        if (len >= BLOCK_SIZE) {
+            int count = in.read(b, off, len - len % BLOCK_SIZE);
+            if (count > 0) {
+                int tail = count % BLOCK_SIZE;
+                if (tail != 0) {
+                    in.readFully(b, off + count, BLOCK_SIZE - tail);
+                    count += BLOCK_SIZE - tail;
+                }
+                decrypt(b, off, count);
+                read += count;
+            }
+        } else if (len > 0 && fillBuffer()) {
+            int count = Math.min(len, available());
+            dataBuffer.get(b, off, count);
+            read += count;
+        }
+
+        return read == 0 ? -1 : read;
+    }
+
+    private boolean fillBuffer() throws IOException {
+        int count = in.read(readBuffer);
+        if (count < 0) {
+            return false;
+        }
+        in.readFully(readBuffer, count, BLOCK_SIZE - count);
+
+        dataBuffer.clear();
+        decrypt(readBuffer, 0, BLOCK_SIZE);
+        dataBuffer.put(readBuffer).flip();
+        return true;
+    }
+
+    private void decrypt(byte[] b, int off, int len) {
+        try {
+            blowfish.processBlocks(b, off, b, off, len / BLOCK_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException(e);
+        }
+    }
+
     @Override
     public int available() {
         return dataBuffer.limit() - dataBuffer.position();
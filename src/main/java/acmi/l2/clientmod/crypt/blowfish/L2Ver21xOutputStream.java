@@ -32,10 +32,13 @@ import java.util.Arrays;
 import java.util.Objects;
 
 public final class L2Ver21xOutputStream extends FinishableOutputStream implements L2Ver21x {
+    private static final int WRITE_BUFFER_SIZE = 0x2000;
+
     private final BlowfishEngine blowfish = new BlowfishEngine();
 
-    private final byte[] writeBuffer = new byte[8];
-    private final ByteBuffer dataBuffer = ByteBuffer.allocate(8);
+    private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
+    private int writeCount;
+    private final ByteBuffer dataBuffer = ByteBuffer.allocate(BLOCK_SIZE);
 
     private boolean finished;
 
@@ -57,6 +60,49 @@ public final class L2Ver21xOutputStream extends FinishableOutputStream implement
         }
     }
 
+    /**
+     * Writes <code>len</code> bytes from the specified byte array
+     * starting at offset <code>off</code> to this output stream.
+     * <p>
+     * Whole blocks are encrypted straight from <code>b</code> into the internal
+     * write buffer, which is passed to the underlying stream once it is full.
+     * Only a trailing part of a block is kept until the next write.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (finished)
+            throw new IOException("write beyond end of stream");
+
+        if (dataBuffer.position() > 0) {
+            int count = Math.min(len, dataBuffer.remaining());
+            dataBuffer.put(b, off, count);
+            off += count;
+            len -= count;
+            if (dataBuffer.hasRemaining())
+                return;
+
+            writeData();
+
+            dataBuffer.clear();
+        }
+
+        while (len >= BLOCK_SIZE) {
+            int count = Math.min(len - len % BLOCK_SIZE, writeBuffer.length - writeCount);
+            encrypt(b, off, count);
+            off += count;
+            len -= count;
+        }
+
+        dataBuffer.put(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
     @Override
     public void finish() throws IOException {
         if (finished)
@@ -72,11 +118,25 @@ public final class L2Ver21xOutputStream extends FinishableOutputStream implement
             return;
 
         Arrays.fill(dataBuffer.array(), dataBuffer.position(), dataBuffer.limit(), (byte) 0);
+        encrypt(dataBuffer.array(), dataBuffer.arrayOffset(), BLOCK_SIZE);
+    }
+
+    private void encrypt(byte[] b, int off, int len) throws IOException {
         try {
-            blowfish.processBlock(dataBuffer.array(), dataBuffer.arrayOffset(), writeBuffer, 0);
+            writeCount += blowfish.processBlocks(b, off, writeBuffer, writeCount, len / BLOCK_SIZE);
         } catch (GeneralSecurityException e) {
             throw new CryptoException(e);
         }
-        out.write(writeBuffer);
+
+        if (writeCount == writeBuffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writeCount > 0) {
+            out.write(writeBuffer, 0, writeCount);
+            writeCount = 0;
+        }
     }
 }
\ No newline at end of file
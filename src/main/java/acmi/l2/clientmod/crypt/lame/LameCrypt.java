@@ -22,51 +22,122 @@
 package acmi.l2.clientmod.crypt.lame;
 
 import acmi.l2.clientmod.crypt.L2Crypt;
+import acmi.l2.clientmod.crypt.RandomAccessCipher;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class LameCrypt {
     public static String cryptString = "Range check error while converting variant of type (%s) into type (%s)";
 
+    private static volatile KeyStream keyStream;
+
     public static InputStream wrapInput(InputStream input) {
-        return new InputStream() {
-            private int pos = L2Crypt.HEADER_SIZE % cryptString.length();
+        return new LameCryptInputStream(input);
+    }
+
+    public static OutputStream wrapOutput(OutputStream output) {
+        return new LameCryptOutputStream(output);
+    }
 
+    /**
+     * @return the cipher of the Lame layer of the current {@link #cryptString},
+     * it both encrypts and decrypts
+     */
+    public static RandomAccessCipher getCipher() {
+        byte[] key = getKeyStream();
+        return new RandomAccessCipher() {
             @Override
-            public int read() throws IOException {
-                int b = input.read();
+            public void process(long position, byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+                xor(key, pos(position), src, srcOff, dst, dstOff, len);
+            }
 
-                if (b == -1) {
-                    return -1;
-                }
+            @Override
+            public void process(long position, ByteBuffer src, ByteBuffer dst) {
+                int len = RandomAccessCipher.checkBuffers(src, dst);
+                int srcPos = src.position();
+                int dstPos = dst.position();
 
-                b ^= cryptString.charAt(pos++);
+                xor(key, pos(position), src, srcPos, dst, dstPos, len);
 
-                if (pos == cryptString.length()) {
-                    pos = 0;
+                src.position(srcPos + len);
+                if (dst != src) {
+                    dst.position(dstPos + len);
                 }
+            }
 
-                return b;
+            private int pos(long position) {
+                return (int) ((L2Crypt.HEADER_SIZE + position) % key.length);
             }
         };
     }
 
-    public static OutputStream wrapOutput(OutputStream output) {
-        return new OutputStream() {
-            private int pos = L2Crypt.HEADER_SIZE % cryptString.length();
+    /**
+     * @return key stream bytes of the current {@link #cryptString}
+     */
+    static byte[] getKeyStream() {
+        String string = cryptString;
+        KeyStream keyStream = LameCrypt.keyStream;
+        if (keyStream == null || keyStream.string != string) {
+            LameCrypt.keyStream = keyStream = new KeyStream(string);
+        }
+        return keyStream.bytes;
+    }
 
-            @Override
-            public void write(int b) throws IOException {
-                b ^= cryptString.charAt(pos++);
+    /**
+     * XORs <code>len</code> bytes of <code>src</code> with the key stream starting at <code>pos</code>
+     * and stores them into <code>dst</code>, which may be the same array.
+     *
+     * @return key stream position following the last processed byte
+     */
+    static int xor(byte[] key, int pos, byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+        while (len > 0) {
+            int count = Math.min(len, key.length - pos);
+            for (int i = 0; i < count; i++) {
+                dst[dstOff + i] = (byte) (src[srcOff + i] ^ key[pos + i]);
+            }
+            pos += count;
+            if (pos == key.length) {
+                pos = 0;
+            }
+            srcOff += count;
+            dstOff += count;
+            len -= count;
+        }
+        return pos;
+    }
 
-                if (pos == cryptString.length()) {
-                    pos = 0;
-                }
+    /**
+     * Buffer variant of {@link #xor(byte[], int, byte[], int, byte[], int, int)} on absolute buffer positions.
+     */
+    static int xor(byte[] key, int pos, ByteBuffer src, int srcPos, ByteBuffer dst, int dstPos, int len) {
+        while (len > 0) {
+            int count = Math.min(len, key.length - pos);
+            for (int i = 0; i < count; i++) {
+                dst.put(dstPos + i, (byte) (src.get(srcPos + i) ^ key[pos + i]));
+            }
+            pos += count;
+            if (pos == key.length) {
+                pos = 0;
+            }
+            srcPos += count;
+            dstPos += count;
+            len -= count;
+        }
+        return pos;
+    }
 
-                output.write(b);
+    private static final class KeyStream {
+        private final String string;
+        private final byte[] bytes;
+
+        private KeyStream(String string) {
+            this.string = string;
+            this.bytes = new byte[string.length()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) string.charAt(i);
             }
-        };
+        }
     }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.lame;
+
+import acmi.l2.clientmod.crypt.L2Crypt;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+public final class LameCryptInputStream extends FilterInputStream {
+    private final byte[] key = LameCrypt.getKeyStream();
+    private int pos;
+    private int markPos;
+
+    public LameCryptInputStream(InputStream input) {
+        this(input, 0);
+    }
+
+    /**
+     * @param position payload position of the first byte of <code>input</code>
+     */
+    public LameCryptInputStream(InputStream input, long position) {
+        super(Objects.requireNonNull(input, "stream"));
+        pos = (int) ((L2Crypt.HEADER_SIZE + position) % key.length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            return b;
+        }
+
+        b = (b ^ key[pos++]) & 0xff;
+        if (pos == key.length) {
+            pos = 0;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int r = in.read(b, off, len);
+        if (r > 0) {
+            pos = LameCrypt.xor(key, pos, b, off, b, off, r);
+        }
+        return r;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        pos = (int) ((pos + skipped) % key.length);
+        return skipped;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        super.mark(readlimit);
+
+        markPos = pos;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        super.reset();
+
+        pos = markPos;
+    }
+}
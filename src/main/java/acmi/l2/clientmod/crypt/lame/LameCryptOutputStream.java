@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.lame;
+
+import acmi.l2.clientmod.crypt.L2Crypt;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+public final class LameCryptOutputStream extends FilterOutputStream {
+    private static final int WRITE_BUFFER_SIZE = 0x2000;
+
+    private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
+    private final byte[] key = LameCrypt.getKeyStream();
+    private int pos = L2Crypt.HEADER_SIZE % key.length;
+
+    public LameCryptOutputStream(OutputStream output) {
+        super(Objects.requireNonNull(output, "stream"));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b ^ key[pos++]);
+        if (pos == key.length) {
+            pos = 0;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        while (len > 0) {
+            int count = Math.min(len, writeBuffer.length);
+            pos = LameCrypt.xor(key, pos, b, off, writeBuffer, 0, count);
+            out.write(writeBuffer, 0, count);
+            off += count;
+            len -= count;
+        }
+    }
+}
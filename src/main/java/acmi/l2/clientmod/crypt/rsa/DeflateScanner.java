@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes a raw deflate stream keeping only the last {@link #WINDOW_SIZE} bytes of output,
+ * to find the block boundaries an {@link java.util.zip.Inflater} can be restarted at.
+ * <p>
+ * Bits are taken from the input a byte at a time, so at a block boundary
+ * fewer than 8 bits of the last byte read are left unused.
+ */
+final class DeflateScanner {
+    static final int WINDOW_SIZE = 1 << 15;
+
+    private static final int MAX_BITS = 15;
+    private static final int MAX_LCODES = 286;
+    private static final int MAX_DCODES = 30;
+    private static final int FIX_LCODES = 288;
+
+    private static final short[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final short[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final short[] DIST_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+            8193, 12289, 16385, 24577};
+    private static final short[] DIST_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11,
+            12, 12, 13, 13};
+    private static final byte[] CODE_LENGTH_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final Huffman FIXED_LENGTH_CODE = new Huffman(FIX_LCODES);
+    private static final Huffman FIXED_DIST_CODE = new Huffman(MAX_DCODES);
+
+    static {
+        short[] lengths = new short[FIX_LCODES];
+        for (int symbol = 0; symbol < FIX_LCODES; symbol++) {
+            lengths[symbol] = (short) (symbol < 144 ? 8 : symbol < 256 ? 9 : symbol < 280 ? 7 : 8);
+        }
+        FIXED_LENGTH_CODE.construct(lengths, 0, FIX_LCODES);
+        short[] distLengths = new short[MAX_DCODES];
+        Arrays.fill(distLengths, (short) 5);
+        FIXED_DIST_CODE.construct(distLengths, 0, MAX_DCODES);
+    }
+
+    interface Input {
+        /**
+         * @return the next byte or <code>-1</code> at the end of the input
+         */
+        int read() throws IOException;
+    }
+
+    interface BoundaryListener {
+        /**
+         * Called before each block header.
+         *
+         * @param bitCount number of unused high bits of the last byte read
+         */
+        void boundary(long out, int bitCount) throws IOException;
+    }
+
+    private final Input input;
+    private int bitBuffer;
+    private int bitCount;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long out;
+
+    private final Huffman lengthCode = new Huffman(MAX_LCODES);
+    private final Huffman distCode = new Huffman(MAX_DCODES);
+    private final short[] lengths = new short[MAX_LCODES + MAX_DCODES];
+
+    DeflateScanner(Input input) {
+        this.input = input;
+    }
+
+    /**
+     * @return number of bytes decoded so far
+     */
+    long getOut() {
+        return out;
+    }
+
+    /**
+     * @return the last {@link #WINDOW_SIZE} bytes decoded, fewer at the start of the stream
+     */
+    byte[] getWindow() {
+        int length = (int) Math.min(out, WINDOW_SIZE);
+        byte[] result = new byte[length];
+        int start = (int) ((out - length) & (WINDOW_SIZE - 1));
+        int first = Math.min(length, WINDOW_SIZE - start);
+        System.arraycopy(window, start, result, 0, first);
+        System.arraycopy(window, 0, result, first, length - first);
+        return result;
+    }
+
+    /**
+     * Decodes the stream up to the end of its last block.
+     */
+    void scan(BoundaryListener listener) throws IOException {
+        int last;
+        do {
+            listener.boundary(out, bitCount);
+
+            last = bits(1);
+            switch (bits(2)) {
+                case 0:
+                    stored();
+                    break;
+                case 1:
+                    codes(FIXED_LENGTH_CODE, FIXED_DIST_CODE);
+                    break;
+                case 2:
+                    dynamic();
+                    break;
+                default:
+                    throw new ZipException("invalid block type");
+            }
+        } while (last == 0);
+    }
+
+    private int nextByte() throws IOException {
+        int b = input.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+        return b;
+    }
+
+    private int bits(int need) throws IOException {
+        int value = bitBuffer;
+        while (bitCount < need) {
+            value |= nextByte() << bitCount;
+            bitCount += 8;
+        }
+
+        bitBuffer = value >>> need;
+        bitCount -= need;
+        return value & ((1 << need) - 1);
+    }
+
+    private void put(int b) {
+        window[(int) out & (WINDOW_SIZE - 1)] = (byte) b;
+        out++;
+    }
+
+    private void stored() throws IOException {
+        bitBuffer = 0;
+        bitCount = 0;
+
+        int length = nextByte() | nextByte() << 8;
+        int complement = nextByte() | nextByte() << 8;
+        if (length != (~complement & 0xffff)) {
+            throw new ZipException("invalid stored block lengths");
+        }
+
+        while (length-- > 0) {
+            put(nextByte());
+        }
+    }
+
+    private void dynamic() throws IOException {
+        int lengthCount = bits(5) + 257;
+        int distCount = bits(5) + 1;
+        int codeCount = bits(4) + 4;
+        if (lengthCount > MAX_LCODES || distCount > MAX_DCODES) {
+            throw new ZipException("too many length or distance symbols");
+        }
+
+        Arrays.fill(lengths, 0, 19, (short) 0);
+        for (int index = 0; index < codeCount; index++) {
+            lengths[CODE_LENGTH_ORDER[index]] = (short) bits(3);
+        }
+        if (lengthCode.construct(lengths, 0, 19) != 0) {
+            throw new ZipException("invalid code lengths set");
+        }
+
+        int index = 0;
+        while (index < lengthCount + distCount) {
+            int symbol = decode(lengthCode);
+            if (symbol < 16) {
+                lengths[index++] = (short) symbol;
+            } else {
+                int length = 0;
+                int repeat;
+                if (symbol == 16) {
+                    if (index == 0) {
+                        throw new ZipException("invalid bit length repeat");
+                    }
+                    length = lengths[index - 1];
+                    repeat = 3 + bits(2);
+                } else if (symbol == 17) {
+                    repeat = 3 + bits(3);
+                } else {
+                    repeat = 11 + bits(7);
+                }
+                if (index + repeat > lengthCount + distCount) {
+                    throw new ZipException("invalid bit length repeat");
+                }
+                while (repeat-- > 0) {
+                    lengths[index++] = (short) length;
+                }
+            }
+        }
+
+        if (lengths[256] == 0) {
+            throw new ZipException("invalid code -- missing end-of-block");
+        }
+
+        int left = lengthCode.construct(lengths, 0, lengthCount);
+        if (left < 0 || (left > 0 && lengthCount - lengthCode.count[0] != 1)) {
+            throw new ZipException("invalid literal/lengths set");
+        }
+        left = distCode.construct(lengths, lengthCount, distCount);
+        if (left < 0 || (left > 0 && distCount - distCode.count[0] != 1)) {
+            throw new ZipException("invalid distances set");
+        }
+
+        codes(lengthCode, distCode);
+    }
+
+    private void codes(Huffman lengthCode, Huffman distCode) throws IOException {
+        int symbol;
+        do {
+            symbol = decode(lengthCode);
+            if (symbol < 256) {
+                put(symbol);
+            } else if (symbol > 256) {
+                symbol -= 257;
+                if (symbol >= LENGTH_BASE.length) {
+                    throw new ZipException("invalid literal/length code");
+                }
+                int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+
+                symbol = decode(distCode);
+                if (symbol >= DIST_BASE.length) {
+                    throw new ZipException("invalid distance code");
+                }
+                int distance = DIST_BASE[symbol] + bits(DIST_EXTRA[symbol]);
+                if (distance > out) {
+                    throw new ZipException("invalid distance too far back");
+                }
+
+                while (length-- > 0) {
+                    put(window[(int) (out - distance) & (WINDOW_SIZE - 1)]);
+                }
+            }
+        } while (symbol != 256);
+    }
+
+    private int decode(Huffman huffman) throws IOException {
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int length = 1; length <= MAX_BITS; length++) {
+            code |= bits(1);
+            int count = huffman.count[length];
+            if (code - count < first) {
+                return huffman.symbol[index + (code - first)];
+            }
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+        throw new ZipException("invalid code");
+    }
+
+    /**
+     * Canonical Huffman code as the number of codes of each length and the symbols ordered by code.
+     */
+    private static final class Huffman {
+        final short[] count = new short[MAX_BITS + 1];
+        final short[] symbol;
+        private final short[] offsets = new short[MAX_BITS + 1];
+
+        Huffman(int symbols) {
+            symbol = new short[symbols];
+        }
+
+        /**
+         * @return 0 for a complete code, negative for an over-subscribed one, positive for an incomplete one
+         */
+        int construct(short[] lengths, int offset, int n) {
+            Arrays.fill(count, (short) 0);
+            for (int i = 0; i < n; i++) {
+                count[lengths[offset + i]]++;
+            }
+            if (count[0] == n) {
+                return 0;
+            }
+
+            int left = 1;
+            for (int length = 1; length <= MAX_BITS; length++) {
+                left <<= 1;
+                left -= count[length];
+                if (left < 0) {
+                    return left;
+                }
+            }
+
+            offsets[1] = 0;
+            for (int length = 1; length < MAX_BITS; length++) {
+                offsets[length + 1] = (short) (offsets[length] + count[length]);
+            }
+            for (int i = 0; i < n; i++) {
+                if (lengths[offset + i] != 0) {
+                    symbol[offsets[lengths[offset + i]]++] = (short) i;
+                }
+            }
+            return left;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import acmi.l2.clientmod.crypt.CryptoException;
+
+import java.math.BigInteger;
+
+/**
+ * {@link RSACipher} calling {@link BigInteger#modPow} on each block directly, without the JCE
+ * provider lookup, key checks and buffer copies of every <code>doFinal</code>.
+ * HotSpot runs <code>modPow</code> of odd moduli as Montgomery exponentiation with
+ * intrinsic multiplication.
+ */
+final class DirectRSACipher extends RSACipher {
+    private final BigInteger modulus;
+    private final BigInteger exponent;
+
+    DirectRSACipher(BigInteger modulus, BigInteger exponent) {
+        if (!isSupported(modulus, exponent)) {
+            throw new IllegalArgumentException("unsupported key");
+        }
+
+        this.modulus = modulus;
+        this.exponent = exponent;
+    }
+
+    static boolean isSupported(BigInteger modulus, BigInteger exponent) {
+        return modulus.testBit(0) && modulus.bitLength() > 1 && modulus.bitLength() <= BLOCK_SIZE * 8
+                && exponent.signum() > 0;
+    }
+
+    @Override
+    public void processBlocks(byte[] b, int off, int blocks) throws CryptoException {
+        for (int i = 0; i < blocks; i++, off += BLOCK_SIZE) {
+            BigInteger message = new BigInteger(1, b, off, BLOCK_SIZE);
+            if (message.compareTo(modulus) >= 0) {
+                throw new CryptoException("Message is larger than modulus");
+            }
+
+            byte[] result = message.modPow(exponent, modulus).toByteArray();
+            int length = Math.min(result.length, BLOCK_SIZE);
+            int padding = BLOCK_SIZE - length;
+            for (int j = 0; j < padding; j++) {
+                b[off + j] = 0;
+            }
+            System.arraycopy(result, result.length - length, b, off + padding, length);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import acmi.l2.clientmod.crypt.CryptoException;
+
+import javax.crypto.Cipher;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+
+/**
+ * {@link RSACipher} on top of JCE, every thread gets its own {@link Cipher}.
+ */
+final class JCERSACipher extends RSACipher {
+    private final int mode;
+    private final Key key;
+    private final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial(this::createCipher);
+
+    JCERSACipher(BigInteger modulus, BigInteger exponent, boolean encryption) throws CryptoException {
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+            if (encryption) {
+                mode = Cipher.ENCRYPT_MODE;
+                key = keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent));
+            } else {
+                mode = Cipher.DECRYPT_MODE;
+                key = keyFactory.generatePrivate(new RSAPrivateKeySpec(modulus, exponent));
+            }
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException(e);
+        }
+        // fail fast on a bad key
+        cipher.get();
+    }
+
+    private Cipher createCipher() {
+        try {
+            Cipher cipher = Cipher.getInstance("RSA/ECB/NoPadding");
+            cipher.init(mode, key);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException(e);
+        }
+    }
+
+    @Override
+    public void processBlocks(byte[] b, int off, int blocks) throws CryptoException {
+        Cipher cipher = this.cipher.get();
+        try {
+            for (int i = 0; i < blocks; i++, off += BLOCK_SIZE) {
+                cipher.doFinal(b, off, BLOCK_SIZE, b, off);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException(e);
+        }
+    }
+}
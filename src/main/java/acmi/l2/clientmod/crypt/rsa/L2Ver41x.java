@@ -22,6 +22,7 @@
 package acmi.l2.clientmod.crypt.rsa;
 
 import java.math.BigInteger;
+import java.util.zip.Deflater;
 
 public interface L2Ver41x {
     BigInteger MODULUS_411 = new BigInteger(
@@ -93,4 +94,16 @@ public interface L2Ver41x {
                     "6f2db816c7db223ec91e955081c1de65", 16
     );
     BigInteger PRIVATE_EXPONENT_L2ENCDEC = new BigInteger("1d", 16);
+
+    /**
+     * @throws IllegalArgumentException if <code>level</code> or <code>strategy</code> is not a valid {@link Deflater} one
+     */
+    static void checkCompression(int level, int strategy) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        }
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("invalid compression strategy: " + strategy);
+        }
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import acmi.l2.clientmod.crypt.BufferCodec;
+import acmi.l2.clientmod.crypt.CryptoException;
+import acmi.l2.clientmod.crypt.RandomAccessCipher;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Objects;
+
+/**
+ * {@link BufferCodec} of the RSA layer of 41x payloads: decrypts 128 byte blocks
+ * and writes the data they carry, i.e. the size prefixed deflate stream.
+ * <p>
+ * The output is shorter than the input, so <code>src</code> and <code>dst</code> can not be
+ * the same buffer, but <code>dst</code> may be a duplicate of <code>src</code> at the same
+ * or a lower position for in-place operation.
+ */
+public final class L2Ver41xBlockDecoder implements BufferCodec {
+    private static final int BLOCK_DATA_SIZE = 124;
+
+    private final RSACipher cipher;
+    private final RandomAccessCipher outerLayer;
+    private final byte[] block = new byte[RSACipher.BLOCK_SIZE];
+    private long position;
+
+    public L2Ver41xBlockDecoder(BigInteger modulus, BigInteger exponent) throws CryptoException {
+        this(modulus, exponent, null);
+    }
+
+    /**
+     * @param outerLayer cipher applied to blocks before RSA, such as the Lame layer of 61x,
+     *                   <code>null</code> for none
+     */
+    public L2Ver41xBlockDecoder(BigInteger modulus, BigInteger exponent, RandomAccessCipher outerLayer) throws CryptoException {
+        this.cipher = RSACipher.getInstance(Objects.requireNonNull(modulus, "modulus"), Objects.requireNonNull(exponent, "exponent"), false);
+        this.outerLayer = outerLayer;
+    }
+
+    /**
+     * Decrypts whole blocks of <code>src</code> while <code>dst</code> has room for the data of a block.
+     * On failure <code>src</code> is positioned at the block that failed, blocks before it are written.
+     *
+     * @throws CryptoException       if a block can not be decrypted
+     * @throws IllegalStateException if a block carries more than 124 bytes
+     */
+    @Override
+    public int transform(ByteBuffer src, ByteBuffer dst) {
+        if (dst == src) {
+            throw new IllegalArgumentException("src and dst are the same buffer");
+        }
+        if (dst.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+
+        int written = 0;
+        while (src.remaining() >= RSACipher.BLOCK_SIZE && dst.remaining() >= BLOCK_DATA_SIZE) {
+            src.duplicate().get(block);
+            if (outerLayer != null) {
+                outerLayer.process(position, block, 0, block, 0, RSACipher.BLOCK_SIZE);
+            }
+            cipher.processBlocks(block, 0, 1);
+
+            int size = block[3] & 0xff;
+            if (size > BLOCK_DATA_SIZE) {
+                throw new IllegalStateException("block data size too large");
+            }
+            src.position(src.position() + RSACipher.BLOCK_SIZE);
+            position += RSACipher.BLOCK_SIZE;
+            dst.put(block, RSACipher.BLOCK_SIZE - size - ((BLOCK_DATA_SIZE - size) % 4), size);
+            written += size;
+        }
+        return written;
+    }
+}
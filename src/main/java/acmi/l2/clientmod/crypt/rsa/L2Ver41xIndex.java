@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import acmi.l2.clientmod.crypt.CryptoException;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Seek index of a 41x payload: restart points of the compressed data, each with the
+ * RSA block to resume decryption at and a snapshot of the inflate window.
+ * Reading from any position then costs at most one span of decryption and inflation.
+ * <p>
+ * An index is built by one pass over the whole payload and may be stored in a sidecar file.
+ *
+ * @see #build(InputStream, BigInteger, BigInteger, long)
+ * @see #open(InputStream, BigInteger, BigInteger, long)
+ */
+public final class L2Ver41xIndex {
+    /**
+     * Default distance between restart points in uncompressed bytes.
+     */
+    public static final long DEFAULT_SPAN = 1 << 20;
+
+    private static final int MAGIC = 0x4c325849; // L2XI
+    private static final int FORMAT_VERSION = 2;
+
+    private final int version;
+    private final long payloadSize;
+    private final long span;
+    private final int size;
+    private final List<Point> points;
+
+    private L2Ver41xIndex(int version, long payloadSize, long span, int size, List<Point> points) {
+        this.version = version;
+        this.payloadSize = payloadSize;
+        this.span = span;
+        this.size = size;
+        this.points = points;
+    }
+
+    /**
+     * @return crypt version of the file the index was built for
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return size of the payload the index was built for
+     */
+    public long getPayloadSize() {
+        return payloadSize;
+    }
+
+    /**
+     * @return distance between restart points the index was built with
+     */
+    public long getSpan() {
+        return span;
+    }
+
+    /**
+     * @return the uncompressed size of the payload
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the sidecar file the index of <code>file</code> is stored in
+     */
+    public static Path getSidecar(Path file) {
+        return file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    /**
+     * Reads and inflates the whole payload, recording a restart point every <code>span</code>
+     * uncompressed bytes or a little more, restart points are deflate block boundaries.
+     *
+     * @param input       the payload, i.e. RSA blocks following the file header
+     * @param version     crypt version of the file, recorded to validate a stored index
+     * @param payloadSize size of the payload, recorded to validate a stored index
+     */
+    public static L2Ver41xIndex build(InputStream input, BigInteger modulus, BigInteger exponent, long span, int version, long payloadSize) throws IOException, CryptoException {
+        if (span <= 0) {
+            throw new IllegalArgumentException("span must be positive");
+        }
+
+        BlockInput blockInput = new BlockInput(Objects.requireNonNull(input, "stream"),
+                RSACipher.getInstance(Objects.requireNonNull(modulus, "modulus"), Objects.requireNonNull(exponent, "exponent"), false));
+        int size = blockInput.next() | blockInput.next() << 8 | blockInput.next() << 16 | blockInput.next() << 24;
+
+        int cmf = blockInput.next();
+        int flg = blockInput.next();
+        if ((cmf & 0x0f) != 8 || (cmf << 8 | flg) % 31 != 0 || (flg & 0x20) != 0) {
+            throw new ZipException("incorrect header check");
+        }
+
+        DeflateScanner scanner = new DeflateScanner(blockInput::read);
+        List<Point> points = new ArrayList<>();
+        scanner.scan((out, bitCount) -> {
+            if (points.isEmpty() || out - points.get(points.size() - 1).out >= span) {
+                points.add(bitCount == 0 ?
+                        new Point(out, blockInput.block, blockInput.skip + 1, 0, scanner.getWindow()) :
+                        new Point(out, blockInput.block, blockInput.skip, 8 - bitCount, scanner.getWindow()));
+            }
+        });
+        if (scanner.getOut() != (size & 0xffffffffL)) {
+            throw new ZipException("inflated " + scanner.getOut() + " bytes, expected " + (size & 0xffffffffL));
+        }
+
+        return new L2Ver41xIndex(version, payloadSize, span, size, points);
+    }
+
+    /**
+     * @return payload offset of the RSA block the stream returned by
+     * {@link #open(InputStream, BigInteger, BigInteger, long)} for <code>position</code> starts at
+     */
+    public long getBlockOffset(long position) {
+        return getPoint(position).block * RSACipher.BLOCK_SIZE;
+    }
+
+    /**
+     * Opens the uncompressed payload at <code>position</code>.
+     *
+     * @param blocks   the payload from {@link #getBlockOffset(long)}
+     * @param position uncompressed position
+     */
+    public InputStream open(InputStream blocks, BigInteger modulus, BigInteger exponent, long position) throws IOException, CryptoException {
+        Point point = getPoint(position);
+
+        InputStream input = new L2Ver41xInputStream.RSAInputStream(Objects.requireNonNull(blocks, "stream"),
+                Objects.requireNonNull(modulus, "modulus"),
+                Objects.requireNonNull(exponent, "exponent"),
+                null, L2Ver41xInputStream.RSAInputStream.DEFAULT_WINDOW);
+        try {
+            skipFully(input, point.skip);
+            if (point.shift != 0) {
+                int first = input.read();
+                if (first < 0) {
+                    throw new EOFException();
+                }
+                input = new SequenceInputStream(new ByteArrayInputStream(primer(point.shift, first)), input);
+            }
+
+            Inflater inflater = new Inflater(true);
+            if (point.window.length > 0) {
+                inflater.setDictionary(point.window);
+            }
+            InputStream inflated = new InflaterInputStream(input, inflater, L2Ver41xInputStream.DEFAULT_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+            input = inflated;
+            skipFully(input, position - point.out);
+            return input;
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    private Point getPoint(long position) {
+        if (position < 0 || position > (size & 0xffffffffL)) {
+            throw new IllegalArgumentException("position out of range: " + position);
+        }
+
+        int low = 0;
+        int high = points.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (points.get(mid).out <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return points.get(low);
+    }
+
+    private static void skipFully(InputStream input, long n) throws IOException {
+        while (n > 0) {
+            long skipped = input.skip(n);
+            if (skipped <= 0) {
+                if (input.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(output));
+        dos.writeInt(MAGIC);
+        dos.writeInt(FORMAT_VERSION);
+        dos.writeInt(version);
+        dos.writeLong(payloadSize);
+        dos.writeLong(span);
+        dos.writeInt(size);
+        dos.writeInt(points.size());
+        for (Point point : points) {
+            dos.writeLong(point.out);
+            dos.writeLong(point.block);
+            dos.writeInt(point.skip);
+            dos.writeByte(point.shift);
+            dos.writeInt(point.window.length);
+            dos.write(point.window);
+        }
+        dos.flush();
+    }
+
+    public static L2Ver41xIndex read(InputStream input) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(input));
+        if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION) {
+            throw new IOException("not a 41x index");
+        }
+
+        int version = dis.readInt();
+        long payloadSize = dis.readLong();
+        long span = dis.readLong();
+        int size = dis.readInt();
+        int count = dis.readInt();
+        if (span <= 0 || count <= 0) {
+            throw new IOException("invalid index");
+        }
+        List<Point> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long out = dis.readLong();
+            long block = dis.readLong();
+            int skip = dis.readInt();
+            int shift = dis.readByte();
+            int windowLength = dis.readInt();
+            if (windowLength < 0 || windowLength > DeflateScanner.WINDOW_SIZE) {
+                throw new IOException("invalid index");
+            }
+            byte[] window = new byte[windowLength];
+            dis.readFully(window);
+            points.add(new Point(out, block, skip, shift, window));
+        }
+        return new L2Ver41xIndex(version, payloadSize, span, size, points);
+    }
+
+    public void write(Path file) throws IOException {
+        try (OutputStream output = Files.newOutputStream(file)) {
+            write(output);
+        }
+    }
+
+    public static L2Ver41xIndex read(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return read(input);
+        }
+    }
+
+    private static final class Point {
+        final long out;
+        final long block;
+        final int skip;
+        final int shift;
+        final byte[] window;
+
+        /**
+         * @param out    uncompressed position
+         * @param block  index of the RSA block to start decryption at
+         * @param skip   number of decrypted bytes to skip from the start of the block
+         * @param shift  number of already consumed low bits of the first byte
+         * @param window the uncompressed data preceding the point
+         */
+        Point(long out, long block, int skip, int shift, byte[] window) {
+            this.out = out;
+            this.block = block;
+            this.skip = skip;
+            this.shift = shift;
+            this.window = window;
+        }
+    }
+
+    /**
+     * Decrypts RSA blocks one by one, keeping track of where the last returned byte came from.
+     */
+    private static final class BlockInput {
+        private final DataInputStream input;
+        private final RSACipher cipher;
+        private final byte[] data = new byte[RSACipher.BLOCK_SIZE];
+        private int position;
+        private int limit;
+        private int start;
+
+        long block = -1;
+        int skip;
+
+        BlockInput(InputStream input, RSACipher cipher) {
+            this.input = new DataInputStream(input);
+            this.cipher = cipher;
+        }
+
+        int read() throws IOException {
+            while (position == limit) {
+                try {
+                    input.readFully(data);
+                } catch (EOFException e) {
+                    return -1;
+                }
+                cipher.processBlocks(data, 0, 1);
+                block++;
+
+                int size = data[3] & 0xff;
+                if (size > 124) {
+                    throw new IllegalStateException("block data size too large");
+                }
+                start = 128 - size - ((124 - size) % 4);
+                position = start;
+                limit = start + size;
+            }
+
+            skip = position - start;
+            return data[position++] & 0xff;
+        }
+
+        int next() throws IOException {
+            int b = read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+    }
+
+    /**
+     * Returns the bytes to feed an {@link Inflater} before the rest of the input of a restart point
+     * that starts <code>shift</code> bits into its first byte: an empty dynamic block ending
+     * <code>shift</code> bits into its last byte, which holds the unused bits of <code>first</code>.
+     * <p>
+     * Byte boundaries of the input are kept this way, stored blocks after the point are aligned to them.
+     */
+    static byte[] primer(int shift, int first) {
+        BitWriter bits = new BitWriter();
+        bits.write(0, 1); // not last
+        bits.write(2, 2); // dynamic
+        bits.write(257 - 257, 5);
+        bits.write(1 - 1, 5);
+        bits.write(18 - 4, 4);
+        // code length code: 0 -> 0, 1 -> 10, 18 -> 11, in CODE_LENGTH_ORDER up to symbol 1
+        for (int length : new int[]{0, 0, 2, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2}) {
+            bits.write(length, 3);
+        }
+        // 256 zero literal lengths, single zeros pad the block to the wanted bit count
+        int zeros = (shift + 2) & 7;
+        for (int i = 0; i < zeros; i++) {
+            bits.code(0, 1);
+        }
+        bits.code(3, 2);
+        bits.write(138 - 11, 7);
+        bits.code(3, 2);
+        bits.write(256 - zeros - 138 - 11, 7);
+        // end of block and distance 0 are the only codes, of length 1
+        bits.code(2, 2);
+        bits.code(2, 2);
+        // the block is just the end of block code
+        bits.code(0, 1);
+
+        byte[] primer = bits.toByteArray(shift);
+        primer[primer.length - 1] |= first & (0xff << shift);
+        return primer;
+    }
+
+    /**
+     * Packs deflate bits into bytes, least significant bit first.
+     */
+    private static final class BitWriter {
+        private final byte[] data = new byte[16];
+        private int count;
+
+        /**
+         * Writes the low <code>n</code> bits of <code>value</code>, least significant first.
+         */
+        void write(int value, int n) {
+            for (int i = 0; i < n; i++, count++) {
+                data[count >> 3] |= ((value >>> i) & 1) << (count & 7);
+            }
+        }
+
+        /**
+         * Writes an <code>n</code> bit Huffman code, most significant bit first.
+         */
+        void code(int code, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                write(code >>> i, 1);
+            }
+        }
+
+        byte[] toByteArray(int shift) {
+            if ((count & 7) != shift) {
+                throw new IllegalStateException("primer is " + count + " bits");
+            }
+            return Arrays.copyOf(data, (count >> 3) + 1);
+        }
+    }
+}
@@ -23,57 +23,223 @@ package acmi.l2.clientmod.crypt.rsa;
 
 import acmi.l2.clientmod.crypt.CryptoException;
 
-import javax.crypto.Cipher;
-import java.io.DataInputStream;
-import java.io.FilterInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.math.BigInteger;
-import java.security.GeneralSecurityException;
-import java.security.KeyFactory;
-import java.security.spec.RSAPrivateKeySpec;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Objects;
-import java.util.zip.InflaterInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
+/**
+ * Decrypts RSA blocks in batches and inflates the data of a whole batch at once,
+ * directly into the caller's array.
+ */
 public final class L2Ver41xInputStream extends FilterInputStream implements L2Ver41x {
+    public static final int DEFAULT_BUFFER_SIZE = 0x2000;
+
+    private static final int SKIP_BUFFER_SIZE = 512;
+
+    private final RSAInputStream rsaInputStream;
     private final int size;
+    private Inflater inflater;
+    private boolean endOfStream;
+
+    private final byte[] singleByteBuffer = new byte[1];
 
     public L2Ver41xInputStream(InputStream input, BigInteger modulus, BigInteger exponent) throws IOException, CryptoException {
+        this(input, modulus, exponent, null);
+    }
+
+    /**
+     * @param executor runs RSA block decryption ahead of inflation,
+     *                 <code>null</code> to decrypt on the reading thread
+     */
+    public L2Ver41xInputStream(InputStream input, BigInteger modulus, BigInteger exponent, Executor executor) throws IOException, CryptoException {
+        this(input, modulus, exponent, executor, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param executor   runs RSA block decryption ahead of inflation,
+     *                   <code>null</code> to decrypt on the reading thread
+     * @param bufferSize amount of decrypted data handed to the inflater at once
+     */
+    public L2Ver41xInputStream(InputStream input, BigInteger modulus, BigInteger exponent, Executor executor, int bufferSize) throws IOException, CryptoException {
         super(null);
-        RSAInputStream rsaInputStream = new RSAInputStream(Objects.requireNonNull(input, "stream"),
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size <= 0");
+        }
+
+        int batchBlocks = (bufferSize + RSAInputStream.BLOCK_DATA_SIZE - 1) / RSAInputStream.BLOCK_DATA_SIZE;
+        in = rsaInputStream = new RSAInputStream(Objects.requireNonNull(input, "stream"),
                 Objects.requireNonNull(modulus, "modulus"),
-                Objects.requireNonNull(exponent, "exponent"));
+                Objects.requireNonNull(exponent, "exponent"),
+                executor, Math.max(RSAInputStream.DEFAULT_WINDOW, batchBlocks), batchBlocks);
         size = Integer.reverseBytes(new DataInputStream(rsaInputStream).readInt());
-        in = new InflaterInputStream(rsaInputStream);
+        inflater = ZipPool.getInflater();
     }
 
     public int getSize() {
         return size;
     }
 
+    private void ensureOpen() throws IOException {
+        if (inflater == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(singleByteBuffer, 0, 1) == -1 ? -1 : singleByteBuffer[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+
+        try {
+            int n;
+            do {
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    endOfStream = true;
+                    return -1;
+                }
+                if (inflater.needsInput() && !rsaInputStream.fill(inflater)) {
+                    throw new EOFException("Unexpected end of ZLIB input stream");
+                }
+            } while ((n = inflater.inflate(b, off, len)) == 0);
+            return n;
+        } catch (DataFormatException e) {
+            String s = e.getMessage();
+            throw new ZipException(s != null ? s : "Invalid ZLIB data format");
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative skip length");
+        }
+        ensureOpen();
+
+        byte[] skipBuffer = new byte[(int) Math.min(n, SKIP_BUFFER_SIZE)];
+        long remaining = n;
+        while (remaining > 0) {
+            int r = read(skipBuffer, 0, (int) Math.min(remaining, skipBuffer.length));
+            if (r == -1) {
+                break;
+            }
+            remaining -= r;
+        }
+        return n - remaining;
+    }
+
+    /**
+     * @return 0 after the end of data, 1 otherwise
+     */
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        if (!endOfStream && inflater.finished()) {
+            endOfStream = true;
+        }
+        return endOfStream ? 0 : 1;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Closes the stream and returns its {@link Inflater} to the pool.
+     */
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) {
+            try {
+                rsaInputStream.close();
+            } finally {
+                ZipPool.release(inflater);
+                inflater = null;
+            }
+        }
+    }
+
     public static class RSAInputStream extends InputStream {
+        /**
+         * Default number of blocks decrypted ahead in parallel mode.
+         */
+        public static final int DEFAULT_WINDOW = 256;
+
+        static final int BLOCK_DATA_SIZE = 124;
+
+        private static final int BATCH_BLOCKS = 32;
+
         private final DataInputStream input;
 
-        private final Cipher cipher;
+        private final RSACipher cipher;
 
-        private final byte[] buffer = new byte[128];
-        private int startPosition;
-        private int position;
-        private int size;
+        private final Executor executor;
+        private final int batchBlocks;
+        private final int batches;
+        private final Deque<Future<Batch>> pending = new ArrayDeque<>();
+        private boolean endOfInput;
+
+        private Batch batch = new Batch(new byte[0], 0);
 
         private boolean closed;
 
         public RSAInputStream(InputStream input, BigInteger modulus, BigInteger exponent) throws CryptoException {
-            this.input = new DataInputStream(input);
+            this(input, modulus, exponent, null, 1);
+        }
 
-            try {
-                KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-                RSAPrivateKeySpec keySpec = new RSAPrivateKeySpec(modulus, exponent);
-                cipher = Cipher.getInstance("RSA/ECB/NoPadding");
-                cipher.init(Cipher.DECRYPT_MODE, keyFactory.generatePrivate(keySpec));
-            } catch (GeneralSecurityException e) {
-                throw new CryptoException(e);
+        /**
+         * Creates a stream that reads up to <code>window</code> blocks ahead and decrypts them
+         * on <code>executor</code>, while already decrypted data is consumed in order.
+         *
+         * @param executor worker pool, <code>null</code> to decrypt on the reading thread
+         * @param window   maximum number of blocks read ahead
+         */
+        public RSAInputStream(InputStream input, BigInteger modulus, BigInteger exponent, Executor executor, int window) throws CryptoException {
+            this(input, modulus, exponent, executor, window, Math.min(BATCH_BLOCKS, window));
+        }
+
+        /**
+         * @param batchBlocks number of blocks read and decrypted together, at most <code>window</code>
+         */
+        RSAInputStream(InputStream input, BigInteger modulus, BigInteger exponent, Executor executor, int window, int batchBlocks) throws CryptoException {
+            if (window < 1) {
+                throw new IllegalArgumentException("window must be positive");
             }
+            if (batchBlocks < 1 || batchBlocks > window) {
+                throw new IllegalArgumentException("batch size must be positive and not exceed window");
+            }
+
+            this.input = new DataInputStream(input);
+            this.cipher = RSACipher.getInstance(modulus, exponent, false);
+            this.executor = executor;
+            this.batchBlocks = batchBlocks;
+            this.batches = (window + batchBlocks - 1) / batchBlocks;
         }
 
         private void ensureOpen() throws IOException {
@@ -83,30 +249,101 @@ public final class L2Ver41xInputStream extends FilterInputStream implements L2Ve
         }
 
         private boolean ensureFilled() throws IOException {
-            if (position == size) {
-                int remaining = buffer.length;
-                while (remaining > 0) {
-                    int count = input.read(buffer, buffer.length - remaining, remaining);
-                    if (count < 0) {
-                        return false;
+            while (batch.position == batch.length) {
+                if (batch.error != null) {
+                    throw batch.error;
+                }
+                if (!nextBatch()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean nextBatch() throws IOException {
+            if (executor == null) {
+                Batch next = readBatch(batchBlocks);
+                if (next == null) {
+                    return false;
+                }
+                batch = decrypt(next);
+            } else {
+                while (!endOfInput && pending.size() < batches) {
+                    Batch next = readBatch(batchBlocks);
+                    if (next != null) {
+                        pending.add(CompletableFuture.supplyAsync(() -> decrypt(next), executor));
                     }
-                    remaining -= count;
                 }
 
-                try {
-                    cipher.doFinal(buffer, 0, 128, buffer);
-                } catch (GeneralSecurityException e) {
-                    throw new CryptoException(e);
+                Future<Batch> future = pending.poll();
+                if (future == null) {
+                    return false;
                 }
+                batch = RSACipher.await(future);
+            }
+            return true;
+        }
+
+        /**
+         * Reads up to <code>maxBlocks</code> whole blocks, a trailing partial block is ignored.
+         *
+         * @return the blocks or <code>null</code> at the end of the input
+         */
+        private Batch readBatch(int maxBlocks) throws IOException {
+            byte[] data = new byte[maxBlocks * RSACipher.BLOCK_SIZE];
+            int count = 0;
+            while (count < data.length) {
+                int r = input.read(data, count, data.length - count);
+                if (r < 0) {
+                    endOfInput = true;
+                    break;
+                }
+                count += r;
+            }
+
+            int blocks = count / RSACipher.BLOCK_SIZE;
+            if (blocks == 0) {
+                return null;
+            }
+            return new Batch(blocks == maxBlocks ? data : Arrays.copyOf(data, blocks * RSACipher.BLOCK_SIZE), blocks);
+        }
 
-                size = buffer[3] & 0xff;
-                if (size > 124) {
-                    throw new IllegalStateException("block data size too large");
+        /**
+         * Decrypts blocks of the batch and packs their data at the start of the array, up to
+         * the first failure, which is reported only if the reader gets to the failed block.
+         */
+        private Batch decrypt(Batch batch) {
+            byte[] data = batch.data;
+            try {
+                for (int i = 0, base = 0; i < batch.blocks; i++, base += RSACipher.BLOCK_SIZE) {
+                    cipher.processBlocks(data, base, 1);
+
+                    int size = data[base + 3] & 0xff;
+                    if (size > BLOCK_DATA_SIZE) {
+                        throw new IllegalStateException("block data size too large");
+                    }
+                    System.arraycopy(data, base + 128 - size - ((BLOCK_DATA_SIZE - size) % 4), data, batch.length, size);
+                    batch.length += size;
                 }
+            } catch (CryptoException | IllegalStateException e) {
+                batch.error = e;
+            }
+            return batch;
+        }
 
-                startPosition = 128 - size - ((124 - size) % 4);
-                position = 0;
+        /**
+         * Passes all decrypted data at hand to <code>inflater</code> as is, without copying.
+         *
+         * @return <code>false</code> at the end of the input
+         */
+        boolean fill(Inflater inflater) throws IOException {
+            ensureOpen();
+            if (!ensureFilled()) {
+                return false;
             }
+
+            inflater.setInput(batch.data, batch.position, batch.length - batch.position);
+            batch.position = batch.length;
             return true;
         }
 
@@ -117,7 +354,7 @@ public final class L2Ver41xInputStream extends FilterInputStream implements L2Ve
                 return -1;
             }
 
-            return buffer[startPosition + position++] & 0xFF;
+            return batch.data[batch.position++] & 0xFF;
         }
 
         @Override
@@ -134,8 +371,8 @@ public final class L2Ver41xInputStream extends FilterInputStream implements L2Ve
             }
 
             int read = Math.min(len, available());
-            System.arraycopy(buffer, startPosition + position, b, off, read);
-            position += read;
+            System.arraycopy(batch.data, batch.position, b, off, read);
+            batch.position += read;
             return read;
         }
 
@@ -143,15 +380,32 @@ public final class L2Ver41xInputStream extends FilterInputStream implements L2Ve
         public int available() throws IOException {
             ensureOpen();
 
-            return size - position;
+            return batch.length - batch.position;
         }
 
         @Override
         public void close() throws IOException {
             if (!closed) {
                 closed = true;
+                for (Future<Batch> future : pending) {
+                    future.cancel(false);
+                }
+                pending.clear();
                 input.close();
             }
         }
+
+        private static final class Batch {
+            final byte[] data;
+            final int blocks;
+            int length;
+            int position;
+            RuntimeException error;
+
+            Batch(byte[] data, int blocks) {
+                this.data = data;
+                this.blocks = blocks;
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -21,30 +21,96 @@
  */
 package acmi.l2.clientmod.crypt.rsa;
 
-import acmi.l2.clientmod.crypt.CryptoException;
 import acmi.l2.clientmod.crypt.FinishableOutputStream;
 
-import javax.crypto.Cipher;
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
-import java.security.GeneralSecurityException;
-import java.security.KeyFactory;
-import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
 public final class L2Ver41xOutputStream extends FinishableOutputStream implements L2Ver41x {
-    private final ByteArrayOutputStream dataBuffer = new ByteArrayOutputStream(0);
+    /**
+     * Compressed data of a stream without a declared size is kept in memory up to this
+     * many bytes and in a temporary file past it.
+     */
+    public static final int SPILL_THRESHOLD = 1 << 23;
+
+    private static final int WRITE_BUFFER_SIZE = 0x2000;
+    private static final long MAX_SIZE = 0xffffffffL;
+
+    private final RSAOutputStream rsaOutputStream;
+    private final long declaredSize;
+    private final SpillOutputStream spill;
+    private final int level;
+    private final int strategy;
+    private final Deflater deflater;
+    private final DeflaterOutputStream deflaterOutputStream;
+    private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
+    private int writeCount;
+    private long size;
+    private boolean sizeWritten;
 
     private boolean finished;
 
     public L2Ver41xOutputStream(OutputStream output, BigInteger modulus, BigInteger exponent) {
-        super(new RSAOutputStream(Objects.requireNonNull(output, "stream"), Objects.requireNonNull(modulus, "modulus"), Objects.requireNonNull(exponent, "exponent")));
+        this(output, modulus, exponent, null);
+    }
+
+    /**
+     * @param executor encrypts RSA blocks in parallel, <code>null</code> to encrypt on the writing thread
+     */
+    public L2Ver41xOutputStream(OutputStream output, BigInteger modulus, BigInteger exponent, Executor executor) {
+        this(output, modulus, exponent, executor, -1);
+    }
+
+    /**
+     * Creates a stream that deflates data as it is written.
+     * <p>
+     * The uncompressed size is stored in front of the compressed data. If it is declared up front,
+     * compressed data goes through RSA and out immediately, otherwise it is held back until
+     * {@link #finish()}, in memory up to {@link #SPILL_THRESHOLD} bytes and in a temporary file past it.
+     *
+     * @param executor encrypts RSA blocks in parallel, <code>null</code> to encrypt on the writing thread
+     * @param size     the exact number of bytes that will be written, or <code>-1</code> if unknown
+     */
+    public L2Ver41xOutputStream(OutputStream output, BigInteger modulus, BigInteger exponent, Executor executor, long size) {
+        this(output, modulus, exponent, executor, size, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+    }
+
+    /**
+     * @param executor encrypts RSA blocks in parallel, <code>null</code> to encrypt on the writing thread
+     * @param size     the exact number of bytes that will be written, or <code>-1</code> if unknown
+     * @param level    the {@link Deflater} compression level
+     * @param strategy the {@link Deflater} compression strategy
+     */
+    public L2Ver41xOutputStream(OutputStream output, BigInteger modulus, BigInteger exponent, Executor executor, long size, int level, int strategy) {
+        super(new RSAOutputStream(Objects.requireNonNull(output, "stream"), Objects.requireNonNull(modulus, "modulus"), Objects.requireNonNull(exponent, "exponent"), executor));
+        if (size > MAX_SIZE) {
+            throw new IllegalArgumentException("size too large: " + size);
+        }
+
+        this.rsaOutputStream = (RSAOutputStream) out;
+        this.declaredSize = size;
+        this.level = level;
+        this.strategy = strategy;
+        this.deflater = ZipPool.getDeflater(level, strategy);
+        if (size < 0) {
+            spill = new SpillOutputStream(SPILL_THRESHOLD);
+            deflaterOutputStream = new DeflaterOutputStream(spill, deflater, WRITE_BUFFER_SIZE);
+        } else {
+            spill = null;
+            deflaterOutputStream = new DeflaterOutputStream(out, deflater, WRITE_BUFFER_SIZE);
+        }
     }
 
     @Override
@@ -53,7 +119,54 @@ public final class L2Ver41xOutputStream extends FinishableOutputStream implement
             throw new IOException("write beyond end of stream");
         }
 
-        dataBuffer.write(b);
+        if (writeCount == writeBuffer.length) {
+            flushBuffer();
+        }
+        writeBuffer[writeCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (finished) {
+            throw new IOException("write beyond end of stream");
+        }
+
+        if (len >= writeBuffer.length) {
+            flushBuffer();
+            deflate(b, off, len);
+        } else {
+            if (len > writeBuffer.length - writeCount) {
+                flushBuffer();
+            }
+            System.arraycopy(b, off, writeBuffer, writeCount, len);
+            writeCount += len;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writeCount > 0) {
+            deflate(writeBuffer, 0, writeCount);
+            writeCount = 0;
+        }
+    }
+
+    private void deflate(byte[] b, int off, int len) throws IOException {
+        if (spill == null && !sizeWritten) {
+            writeSize(declaredSize);
+        }
+
+        size += len;
+        if (size > (declaredSize >= 0 ? declaredSize : MAX_SIZE)) {
+            throw new IOException("write beyond declared size");
+        }
+
+        deflaterOutputStream.write(b, off, len);
+    }
+
+    private void writeSize(long size) throws IOException {
+        new DataOutputStream(out).writeInt(Integer.reverseBytes((int) size));
+        sizeWritten = true;
     }
 
     @Override
@@ -64,34 +177,53 @@ public final class L2Ver41xOutputStream extends FinishableOutputStream implement
 
         finished = true;
 
-        new DataOutputStream(out).writeInt(Integer.reverseBytes(dataBuffer.size()));
+        try {
+            flushBuffer();
+            if (spill == null) {
+                if (size != declaredSize) {
+                    throw new IOException("declared size " + declaredSize + ", written " + size);
+                }
+                if (!sizeWritten) {
+                    writeSize(declaredSize);
+                }
+            }
 
-        DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(out);
-        dataBuffer.writeTo(deflaterOutputStream);
-        deflaterOutputStream.finish();
+            deflaterOutputStream.finish();
 
-        ((RSAOutputStream) out).finish();
+            if (spill != null) {
+                writeSize(size);
+                spill.writeTo(out);
+            }
+
+            rsaOutputStream.finish();
+        } finally {
+            ZipPool.release(deflater, level, strategy);
+            if (spill != null) {
+                spill.close();
+            }
+        }
     }
 
     private static class RSAOutputStream extends FinishableOutputStream {
-        private final Cipher cipher;
+        private static final int BATCH_BLOCKS = 32;
+        private static final int WINDOW_BATCHES = 8;
+
+        private final RSACipher cipher;
+
+        private final Executor executor;
+        private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
 
         private final ByteBuffer dataBuffer = ByteBuffer.allocate(124);
-        private final byte[] block = new byte[128];
+        private byte[] batch = new byte[BATCH_BLOCKS * RSACipher.BLOCK_SIZE];
+        private int batchBlocks;
 
         private boolean finished;
 
-        public RSAOutputStream(OutputStream output, BigInteger modulus, BigInteger exponent) {
+        public RSAOutputStream(OutputStream output, BigInteger modulus, BigInteger exponent, Executor executor) {
             super(output);
 
-            try {
-                KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-                RSAPublicKeySpec keySpec = new RSAPublicKeySpec(modulus, exponent);
-                cipher = Cipher.getInstance("RSA/ECB/NoPadding");
-                cipher.init(Cipher.ENCRYPT_MODE, keyFactory.generatePublic(keySpec));
-            } catch (GeneralSecurityException e) {
-                throw new CryptoException(e);
-            }
+            this.cipher = RSACipher.getInstance(modulus, exponent, true);
+            this.executor = executor;
         }
 
         @Override
@@ -109,6 +241,27 @@ public final class L2Ver41xOutputStream extends FinishableOutputStream implement
             }
         }
 
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (finished) {
+                throw new IOException("write beyond end of stream");
+            }
+
+            while (len > 0) {
+                int count = Math.min(len, dataBuffer.remaining());
+                dataBuffer.put(b, off, count);
+                off += count;
+                len -= count;
+
+                if (dataBuffer.position() == dataBuffer.limit()) {
+                    writeData();
+
+                    dataBuffer.clear();
+                }
+            }
+        }
+
         @Override
         public void finish() throws IOException {
             if (finished) {
@@ -117,6 +270,10 @@ public final class L2Ver41xOutputStream extends FinishableOutputStream implement
 
             finished = true;
             writeData();
+            writeBatch();
+            while (!pending.isEmpty()) {
+                out.write(RSACipher.await(pending.poll()));
+            }
             flush();
         }
 
@@ -126,17 +283,43 @@ public final class L2Ver41xOutputStream extends FinishableOutputStream implement
                 return;
             }
 
-            Arrays.fill(block, (byte) 0);
-            block[3] = (byte) (size & 0xff);
-            System.arraycopy(dataBuffer.array(), 0, block, 128 - size - ((124 - size) % 4), size);
+            int base = batchBlocks * RSACipher.BLOCK_SIZE;
+            Arrays.fill(batch, base, base + RSACipher.BLOCK_SIZE, (byte) 0);
+            batch[base + 3] = (byte) (size & 0xff);
+            System.arraycopy(dataBuffer.array(), 0, batch, base + 128 - size - ((124 - size) % 4), size);
 
-            try {
-                cipher.doFinal(block, 0, 128, block);
-            } catch (GeneralSecurityException e) {
-                throw new CryptoException(e);
+            if (++batchBlocks == BATCH_BLOCKS) {
+                writeBatch();
             }
+        }
 
-            out.write(block);
+        /**
+         * Encrypts the collected blocks, on the worker pool if there is one.
+         * Blocks are written in order, at most {@link #WINDOW_BATCHES} batches are in flight.
+         */
+        private void writeBatch() throws IOException {
+            if (batchBlocks == 0) {
+                return;
+            }
+
+            int length = batchBlocks * RSACipher.BLOCK_SIZE;
+            if (executor == null) {
+                cipher.processBlocks(batch, 0, batchBlocks);
+                out.write(batch, 0, length);
+            } else {
+                byte[] data = batch;
+                int blocks = batchBlocks;
+                pending.add(CompletableFuture.supplyAsync(() -> {
+                    cipher.processBlocks(data, 0, blocks);
+                    return length == data.length ? data : Arrays.copyOf(data, length);
+                }, executor));
+                batch = new byte[BATCH_BLOCKS * RSACipher.BLOCK_SIZE];
+
+                while (pending.size() > WINDOW_BATCHES) {
+                    out.write(RSACipher.await(pending.poll()));
+                }
+            }
+            batchBlocks = 0;
         }
     }
 }
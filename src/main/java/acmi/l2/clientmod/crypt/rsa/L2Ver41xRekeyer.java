@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import acmi.l2.clientmod.crypt.CryptoException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Moves 41x data from one RSA key to another without inflating it.
+ * <p>
+ * Every block is decrypted with the source key and encrypted with the target key as it is,
+ * so block framing, the size prefix and the compressed data stay untouched.
+ */
+public final class L2Ver41xRekeyer {
+    private static final int BATCH_BLOCKS = 32;
+    private static final int WINDOW_BATCHES = 8;
+
+    private L2Ver41xRekeyer() {
+    }
+
+    /**
+     * Re-encrypts the blocks of <code>input</code> to <code>output</code>. Bytes past the last whole
+     * block are copied unchanged. Neither stream is closed.
+     *
+     * @param sourceModulus  the modulus of the key the data is decrypted with
+     * @param sourceExponent the private exponent of the key the data is decrypted with
+     * @param targetModulus  the modulus of the key the data is encrypted with
+     * @param targetExponent the public exponent of the key the data is encrypted with
+     * @param executor       processes batches of blocks in parallel, <code>null</code> to process them on the calling thread
+     * @return the number of blocks processed
+     * @throws CryptoException if a block is not valid for the source key
+     */
+    public static long rekey(InputStream input, OutputStream output,
+                             BigInteger sourceModulus, BigInteger sourceExponent,
+                             BigInteger targetModulus, BigInteger targetExponent,
+                             Executor executor) throws IOException, CryptoException {
+        Objects.requireNonNull(input, "stream");
+        Objects.requireNonNull(output, "stream");
+        RSACipher decipher = RSACipher.getInstance(sourceModulus, sourceExponent, false);
+        RSACipher cipher = RSACipher.getInstance(targetModulus, targetExponent, true);
+
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        long total = 0;
+        while (true) {
+            byte[] data = new byte[BATCH_BLOCKS * RSACipher.BLOCK_SIZE];
+            int count = input.readNBytes(data, 0, data.length);
+            int blocks = count / RSACipher.BLOCK_SIZE;
+            if (blocks > 0) {
+                byte[] batch = blocks == BATCH_BLOCKS ? data : Arrays.copyOf(data, blocks * RSACipher.BLOCK_SIZE);
+                if (executor == null) {
+                    output.write(rekey(decipher, cipher, batch, blocks));
+                } else {
+                    pending.add(CompletableFuture.supplyAsync(() -> rekey(decipher, cipher, batch, blocks), executor));
+                    while (pending.size() > WINDOW_BATCHES) {
+                        output.write(RSACipher.await(pending.poll()));
+                    }
+                }
+                total += blocks;
+            }
+
+            if (count < data.length) {
+                while (!pending.isEmpty()) {
+                    output.write(RSACipher.await(pending.poll()));
+                }
+                output.write(data, blocks * RSACipher.BLOCK_SIZE, count % RSACipher.BLOCK_SIZE);
+                output.flush();
+                return total;
+            }
+        }
+    }
+
+    private static byte[] rekey(RSACipher decipher, RSACipher cipher, byte[] data, int blocks) throws CryptoException {
+        decipher.processBlocks(data, 0, blocks);
+        for (int base = 0; base < data.length; base += RSACipher.BLOCK_SIZE) {
+            if ((data[base + 3] & 0xff) > L2Ver41xInputStream.RSAInputStream.BLOCK_DATA_SIZE) {
+                throw new CryptoException("block data size too large");
+            }
+        }
+        cipher.processBlocks(data, 0, blocks);
+        return data;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import acmi.l2.clientmod.crypt.CryptoException;
+
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Raw RSA on 41x blocks. Instances are thread-safe and cached per key,
+ * so opening many files with the same key does not repeat the key setup.
+ */
+public abstract class RSACipher {
+    public static final int BLOCK_SIZE = 128;
+
+    private static final int CACHE_SIZE = 16;
+    private static final Map<List<Object>, RSACipher> CACHE = new ConcurrentHashMap<>();
+
+    private static volatile boolean jceOnly;
+
+    RSACipher() {
+    }
+
+    /**
+     * Makes {@link #getInstance} always return the JCE <code>RSA/ECB/NoPadding</code> cipher
+     * instead of the direct engine.
+     */
+    public static void setJCEOnly(boolean jceOnly) {
+        RSACipher.jceOnly = jceOnly;
+    }
+
+    /**
+     * @param encryption whether the exponent is a public (encryption) or a private (decryption) one
+     */
+    public static RSACipher getInstance(BigInteger modulus, BigInteger exponent, boolean encryption) throws CryptoException {
+        if (!jceOnly && DirectRSACipher.isSupported(modulus, exponent)) {
+            return getCached(List.of(modulus, exponent, encryption, DirectRSACipher.class), () -> new DirectRSACipher(modulus, exponent));
+        }
+        return getJCEInstance(modulus, exponent, encryption);
+    }
+
+    /**
+     * @param encryption whether the exponent is a public (encryption) or a private (decryption) one
+     */
+    public static RSACipher getJCEInstance(BigInteger modulus, BigInteger exponent, boolean encryption) throws CryptoException {
+        return getCached(List.of(modulus, exponent, encryption, JCERSACipher.class), () -> new JCERSACipher(modulus, exponent, encryption));
+    }
+
+    private static RSACipher getCached(List<Object> cacheKey, Supplier<RSACipher> factory) {
+        RSACipher cipher = CACHE.get(cacheKey);
+        if (cipher == null) {
+            cipher = factory.get();
+            if (CACHE.size() < CACHE_SIZE) {
+                RSACipher cached = CACHE.putIfAbsent(cacheKey, cipher);
+                if (cached != null) {
+                    cipher = cached;
+                }
+            }
+        }
+        return cipher;
+    }
+
+    /**
+     * Processes <code>blocks</code> consecutive blocks in place.
+     *
+     * @throws CryptoException if a block is not less than the modulus
+     */
+    public abstract void processBlocks(byte[] b, int off, int blocks) throws CryptoException;
+
+    /**
+     * Waits for blocks processed on a worker pool, rethrowing what the worker threw.
+     */
+    static <T> T await(Future<T> future) throws InterruptedIOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CryptoException(e.getCause());
+        }
+    }
+}
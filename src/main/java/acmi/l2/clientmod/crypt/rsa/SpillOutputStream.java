@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Collects data in memory up to a threshold and moves it to a temporary file past it.
+ */
+final class SpillOutputStream extends OutputStream {
+    private final int threshold;
+
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private Path file;
+    private OutputStream fileOutput;
+
+    SpillOutputStream(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fileOutput == null && memory.size() + len > threshold) {
+            file = Files.createTempFile("l2crypt", ".tmp");
+            fileOutput = new BufferedOutputStream(Files.newOutputStream(file), 0x10000);
+            memory.writeTo(fileOutput);
+            memory = null;
+        }
+
+        if (fileOutput != null) {
+            fileOutput.write(b, off, len);
+        } else {
+            memory.write(b, off, len);
+        }
+    }
+
+    /**
+     * Writes everything collected so far to <code>output</code>.
+     */
+    void writeTo(OutputStream output) throws IOException {
+        if (fileOutput == null) {
+            memory.writeTo(output);
+        } else {
+            fileOutput.flush();
+            Files.copy(file, output);
+        }
+    }
+
+    /**
+     * Releases the memory and deletes the temporary file.
+     */
+    @Override
+    public void close() throws IOException {
+        memory = null;
+        if (fileOutput != null) {
+            try {
+                fileOutput.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reuses {@link Inflater}s and {@link Deflater}s of 41x streams, so their native memory
+ * is not allocated and left to the cleaner for every file.
+ */
+final class ZipPool {
+    private static final int POOL_SIZE = 8;
+
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final Map<Integer, BlockingQueue<Deflater>> DEFLATERS = new ConcurrentHashMap<>();
+
+    private ZipPool() {
+    }
+
+    static Inflater getInflater() {
+        Inflater inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    static void release(Inflater inflater) {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the level or the strategy is invalid
+     */
+    static Deflater getDeflater(int level, int strategy) {
+        L2Ver41x.checkCompression(level, strategy);
+
+        Deflater deflater = deflaters(level, strategy).poll();
+        if (deflater == null) {
+            deflater = new Deflater(level);
+            deflater.setStrategy(strategy);
+        }
+        return deflater;
+    }
+
+    /**
+     * @param level    the level <code>deflater</code> was obtained with
+     * @param strategy the strategy <code>deflater</code> was obtained with
+     */
+    static void release(Deflater deflater, int level, int strategy) {
+        deflater.reset();
+        if (!deflaters(level, strategy).offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static BlockingQueue<Deflater> deflaters(int level, int strategy) {
+        return DEFLATERS.computeIfAbsent(level << 8 | strategy, k -> new ArrayBlockingQueue<>(POOL_SIZE));
+    }
+}
@@ -21,6 +21,10 @@
  */
 package acmi.l2.clientmod.crypt.xor;
 
+import acmi.l2.clientmod.crypt.RandomAccessCipher;
+
+import java.nio.ByteBuffer;
+
 public interface L2Ver120 {
     int START_IND = 0xE6;
 
@@ -31,4 +35,34 @@ public interface L2Ver120 {
         int d4 = (n >> 12) & 0xf;
         return ((d2 ^ d4) << 4) | (d1 ^ d3);
     }
+
+    /**
+     * @return the cipher of 120 payloads, it both encrypts and decrypts
+     */
+    static RandomAccessCipher getCipher() {
+        return new RandomAccessCipher() {
+            @Override
+            public void process(long position, byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+                L2Ver120KeyStream.xor(offset(position), src, srcOff, dst, dstOff, len);
+            }
+
+            @Override
+            public void process(long position, ByteBuffer src, ByteBuffer dst) {
+                int len = RandomAccessCipher.checkBuffers(src, dst);
+                int srcPos = src.position();
+                int dstPos = dst.position();
+
+                L2Ver120KeyStream.xor(offset(position), src, srcPos, dst, dstPos, len);
+
+                src.position(srcPos + len);
+                if (dst != src) {
+                    dst.position(dstPos + len);
+                }
+            }
+
+            private int offset(long position) {
+                return L2Ver120KeyStream.offset(START_IND + (int) (position % L2Ver120KeyStream.PERIOD));
+            }
+        };
+    }
 }
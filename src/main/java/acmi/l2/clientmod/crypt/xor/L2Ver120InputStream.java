@@ -27,11 +27,10 @@ import java.io.InputStream;
 import java.util.Objects;
 
 import static acmi.l2.clientmod.crypt.xor.L2Ver120.START_IND;
-import static acmi.l2.clientmod.crypt.xor.L2Ver120.getXORKey;
 
 public final class L2Ver120InputStream extends FilterInputStream {
-    private int ind = START_IND;
-    private int markInd;
+    private int offset = L2Ver120KeyStream.offset(START_IND);
+    private int markOffset;
 
     public L2Ver120InputStream(InputStream input) {
         super(Objects.requireNonNull(input, "stream"));
@@ -40,29 +39,41 @@ public final class L2Ver120InputStream extends FilterInputStream {
     @Override
     public int read() throws IOException {
         int b = in.read();
-        return b < 0 ? b : b ^ getXORKey(ind++);
+        if (b < 0) {
+            return b;
+        }
+        b ^= L2Ver120KeyStream.get(offset);
+        offset = L2Ver120KeyStream.offset(offset + 1);
+        return b;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
         int r = in.read(b, off, len);
-        for (int i = 0; i < r; i++) {
-            b[off + i] ^= getXORKey(ind++);
+        if (r > 0) {
+            offset = L2Ver120KeyStream.xor(offset, b, off, b, off, r);
         }
         return r;
     }
 
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        offset = L2Ver120KeyStream.offset(offset + (int) (skipped % L2Ver120KeyStream.PERIOD));
+        return skipped;
+    }
+
     @Override
     public synchronized void mark(int readlimit) {
         super.mark(readlimit);
 
-        markInd = ind;
+        markOffset = offset;
     }
 
     @Override
     public synchronized void reset() throws IOException {
         super.reset();
 
-        ind = markInd;
+        offset = markOffset;
     }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.xor;
+
+import java.nio.ByteBuffer;
+
+import static acmi.l2.clientmod.crypt.xor.L2Ver120.getXORKey;
+
+/**
+ * Key stream of the 120 scheme.
+ * <p>
+ * {@link L2Ver120#getXORKey(int)} depends only on the low 16 bits of the position,
+ * so one period of the key stream is computed on first use and shared by all streams.
+ */
+final class L2Ver120KeyStream {
+    static final int PERIOD = 0x10000;
+
+    private static final byte[] TABLE = new byte[PERIOD];
+
+    static {
+        for (int i = 0; i < PERIOD; i++) {
+            TABLE[i] = (byte) getXORKey(i);
+        }
+    }
+
+    private L2Ver120KeyStream() {
+    }
+
+    /**
+     * @return table offset of the key stream position <code>n</code>
+     */
+    static int offset(int n) {
+        return n & (PERIOD - 1);
+    }
+
+    static int get(int offset) {
+        return TABLE[offset] & 0xff;
+    }
+
+    /**
+     * XORs <code>len</code> bytes of <code>src</code> with the key stream starting at table offset <code>offset</code>
+     * and stores them into <code>dst</code>, which may be the same array.
+     *
+     * @return table offset following the last processed byte
+     */
+    static int xor(int offset, byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+        while (len > 0) {
+            int count = Math.min(len, PERIOD - offset);
+            for (int i = 0; i < count; i++) {
+                dst[dstOff + i] = (byte) (src[srcOff + i] ^ TABLE[offset + i]);
+            }
+            offset = offset(offset + count);
+            srcOff += count;
+            dstOff += count;
+            len -= count;
+        }
+        return offset;
+    }
+
+    /**
+     * Buffer variant of {@link #xor(int, byte[], int, byte[], int, int)} on absolute buffer positions.
+     */
+    static int xor(int offset, ByteBuffer src, int srcPos, ByteBuffer dst, int dstPos, int len) {
+        while (len > 0) {
+            int count = Math.min(len, PERIOD - offset);
+            for (int i = 0; i < count; i++) {
+                dst.put(dstPos + i, (byte) (src.get(srcPos + i) ^ TABLE[offset + i]));
+            }
+            offset = offset(offset + count);
+            srcPos += count;
+            dstPos += count;
+            len -= count;
+        }
+        return offset;
+    }
+}
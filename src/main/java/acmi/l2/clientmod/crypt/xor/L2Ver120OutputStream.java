@@ -27,10 +27,12 @@ import java.io.OutputStream;
 import java.util.Objects;
 
 import static acmi.l2.clientmod.crypt.xor.L2Ver120.START_IND;
-import static acmi.l2.clientmod.crypt.xor.L2Ver120.getXORKey;
 
 public final class L2Ver120OutputStream extends FilterOutputStream {
-    private int ind = START_IND;
+    private static final int WRITE_BUFFER_SIZE = 0x2000;
+
+    private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
+    private int offset = L2Ver120KeyStream.offset(START_IND);
 
     public L2Ver120OutputStream(OutputStream output) {
         super(Objects.requireNonNull(output, "stream"));
@@ -38,6 +40,19 @@ public final class L2Ver120OutputStream extends FilterOutputStream {
 
     @Override
     public void write(int b) throws IOException {
-        out.write(b ^ getXORKey(ind++));
+        out.write(b ^ L2Ver120KeyStream.get(offset));
+        offset = L2Ver120KeyStream.offset(offset + 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        while (len > 0) {
+            int count = Math.min(len, writeBuffer.length);
+            offset = L2Ver120KeyStream.xor(offset, b, off, writeBuffer, 0, count);
+            out.write(writeBuffer, 0, count);
+            off += count;
+            len -= count;
+        }
     }
 }
\ No newline at end of file
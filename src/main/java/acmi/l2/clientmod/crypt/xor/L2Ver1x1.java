@@ -21,6 +21,10 @@
  */
 package acmi.l2.clientmod.crypt.xor;
 
+import acmi.l2.clientmod.crypt.RandomAccessCipher;
+
+import java.nio.ByteBuffer;
+
 public interface L2Ver1x1 {
     int XOR_KEY_111 = 0xAC;
 
@@ -31,4 +35,42 @@ public interface L2Ver1x1 {
             ind += filename.charAt(i);
         return ind & 0xff;
     }
+
+    /**
+     * @return the cipher of 111/121 payloads, it both encrypts and decrypts
+     */
+    static RandomAccessCipher getCipher(int xorKey) {
+        return new RandomAccessCipher() {
+            @Override
+            public void process(long position, byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+                for (int i = 0; i < len; i++) {
+                    dst[dstOff + i] = (byte) (src[srcOff + i] ^ xorKey);
+                }
+            }
+
+            @Override
+            public void process(long position, ByteBuffer src, ByteBuffer dst) {
+                int len = RandomAccessCipher.checkBuffers(src, dst);
+                int srcPos = src.position();
+                int dstPos = dst.position();
+
+                int i = 0;
+                if (src.order() == dst.order()) {
+                    // the same key in every byte, so byte order does not matter
+                    long key = (xorKey & 0xffL) * 0x0101010101010101L;
+                    for (; i + Long.BYTES <= len; i += Long.BYTES) {
+                        dst.putLong(dstPos + i, src.getLong(srcPos + i) ^ key);
+                    }
+                }
+                for (; i < len; i++) {
+                    dst.put(dstPos + i, (byte) (src.get(srcPos + i) ^ xorKey));
+                }
+
+                src.position(srcPos + len);
+                if (dst != src) {
+                    dst.position(dstPos + len);
+                }
+            }
+        };
+    }
 }
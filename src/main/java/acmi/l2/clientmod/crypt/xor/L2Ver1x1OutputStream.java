@@ -27,6 +27,9 @@ import java.io.OutputStream;
 import java.util.Objects;
 
 public final class L2Ver1x1OutputStream extends FilterOutputStream {
+    private static final int WRITE_BUFFER_SIZE = 0x2000;
+
+    private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
     private final int xorKey;
 
     public L2Ver1x1OutputStream(OutputStream output, int xorKey) {
@@ -38,4 +41,18 @@ public final class L2Ver1x1OutputStream extends FilterOutputStream {
     public void write(int b) throws IOException {
         out.write(b ^ xorKey);
     }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        while (len > 0) {
+            int count = Math.min(len, writeBuffer.length);
+            for (int i = 0; i < count; i++) {
+                writeBuffer[i] = (byte) (b[off + i] ^ xorKey);
+            }
+            out.write(writeBuffer, 0, count);
+            off += count;
+            len -= count;
+        }
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class DirectRSACipherTest {
+    private static final BigInteger[][] KEYS = {
+            {L2Ver41x.MODULUS_411, L2Ver41x.PRIVATE_EXPONENT_411},
+            {L2Ver41x.MODULUS_412, L2Ver41x.PRIVATE_EXPONENT_412},
+            {L2Ver41x.MODULUS_413, L2Ver41x.PRIVATE_EXPONENT_413},
+            {L2Ver41x.MODULUS_414, L2Ver41x.PRIVATE_EXPONENT_414},
+            {L2Ver41x.MODULUS_L2ENCDEC, L2Ver41x.PRIVATE_EXPONENT_L2ENCDEC},
+            {L2Ver41x.MODULUS_L2ENCDEC, L2Ver41x.PUBLIC_EXPONENT_L2ENCDEC},
+    };
+
+    @Test
+    void matchesJCE() {
+        for (BigInteger[] key : KEYS) {
+            byte[] blocks = blocks(key[0]);
+            for (boolean encryption : new boolean[]{false, true}) {
+                byte[] expected = blocks.clone();
+                new JCERSACipher(key[0], key[1], encryption).processBlocks(expected, 0, expected.length / RSACipher.BLOCK_SIZE);
+                byte[] actual = blocks.clone();
+                new DirectRSACipher(key[0], key[1]).processBlocks(actual, 0, actual.length / RSACipher.BLOCK_SIZE);
+
+                assertArrayEquals(expected, actual);
+            }
+        }
+    }
+
+    /**
+     * Blocks shaped like 41x data of every size, a block of one, whose result needs full
+     * zero padding, the largest block below the modulus and random blocks below it.
+     */
+    private static byte[] blocks(BigInteger modulus) {
+        int dataBlocks = 125;
+        int randomBlocks = 32;
+        byte[] blocks = new byte[(dataBlocks + 2 + randomBlocks) * RSACipher.BLOCK_SIZE];
+        Random random = new Random(modulus.hashCode());
+        int base = 0;
+        for (int size = 0; size < dataBlocks; size++, base += RSACipher.BLOCK_SIZE) {
+            blocks[base + 3] = (byte) size;
+            for (int i = 0; i < size; i++) {
+                blocks[base + RSACipher.BLOCK_SIZE - size - ((124 - size) % 4) + i] = (byte) random.nextInt();
+            }
+        }
+
+        blocks[base + RSACipher.BLOCK_SIZE - 1] = 1;
+        base += RSACipher.BLOCK_SIZE;
+
+        put(blocks, base, modulus.subtract(BigInteger.ONE));
+        base += RSACipher.BLOCK_SIZE;
+
+        for (int i = 0; i < randomBlocks; i++, base += RSACipher.BLOCK_SIZE) {
+            put(blocks, base, new BigInteger(modulus.bitLength(), random).mod(modulus));
+        }
+        return blocks;
+    }
+
+    private static void put(byte[] blocks, int base, BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        int length = Math.min(bytes.length, RSACipher.BLOCK_SIZE);
+        System.arraycopy(bytes, bytes.length - length, blocks, base + RSACipher.BLOCK_SIZE - length, length);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import acmi.l2.clientmod.crypt.L2Crypt;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static acmi.l2.clientmod.crypt.rsa.L2Ver41x.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class L2Ver41xIndexTest {
+    private static final int SPAN = 5000;
+
+    /**
+     * Restart points fall in the middle of bytes and random data is deflated into stored blocks,
+     * which are aligned to byte boundaries of the original stream.
+     */
+    @Test
+    void opensEveryRestartPoint() throws IOException {
+        byte[] data = data(120_000);
+        for (int level : new int[]{1, 6, 9}) {
+            for (int strategy : new int[]{Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY}) {
+                byte[] payload = encrypt(data, level, strategy);
+                L2Ver41xIndex index = L2Ver41xIndex.build(new ByteArrayInputStream(payload), MODULUS_L2ENCDEC, PRIVATE_EXPONENT_L2ENCDEC, SPAN, 413, payload.length);
+
+                // every restart point is the last one before some of these positions
+                for (int position = 0; position <= data.length; position += SPAN / 2) {
+                    int offset = (int) index.getBlockOffset(position);
+                    int length = Math.min(3 * SPAN, data.length - position);
+                    try (InputStream input = index.open(new ByteArrayInputStream(payload, offset, payload.length - offset),
+                            MODULUS_L2ENCDEC, PRIVATE_EXPONENT_L2ENCDEC, position)) {
+                        assertArrayEquals(Arrays.copyOfRange(data, position, position + length), input.readNBytes(length),
+                                "level " + level + ", strategy " + strategy + ", position " + position);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void primerKeepsByteAlignment() {
+        for (int shift = 1; shift < 8; shift++) {
+            byte[] primer = L2Ver41xIndex.primer(shift, 0xff);
+            assertArrayEquals(new byte[]{(byte) (0xff << shift)}, new byte[]{(byte) (primer[primer.length - 1] & (0xff << shift))});
+        }
+    }
+
+    @Test
+    void rebuildsMismatchedSidecar(@TempDir Path dir) throws IOException {
+        L2Crypt.set41xPrivateKey(413, MODULUS_L2ENCDEC, PRIVATE_EXPONENT_L2ENCDEC);
+        try {
+            Path plain = dir.resolve("plain.dat");
+            Path file = dir.resolve("file.dat");
+            Files.write(plain, data(20_000));
+            L2Crypt.encrypt(plain, file, 413);
+
+            assertEquals(SPAN, L2Crypt.getIndex(file, SPAN).getSpan());
+            assertEquals(SPAN, L2Ver41xIndex.read(L2Ver41xIndex.getSidecar(file)).getSpan());
+            assertEquals(2 * SPAN, L2Crypt.getIndex(file, 2 * SPAN).getSpan());
+
+            Files.write(L2Ver41xIndex.getSidecar(file), new byte[]{0x4c, 0x32});
+            L2Ver41xIndex index = L2Crypt.getIndex(file, SPAN);
+            assertEquals(SPAN, index.getSpan());
+            assertEquals(413, index.getVersion());
+            assertEquals(Files.size(file) - L2Crypt.HEADER_SIZE, index.getPayloadSize());
+        } finally {
+            L2Crypt.set41xPrivateKey(413, MODULUS_413, PRIVATE_EXPONENT_413);
+        }
+    }
+
+    /**
+     * Half text-like data that compresses well, half random data that does not.
+     */
+    private static byte[] data(int size) {
+        Random random = new Random(size);
+        byte[] data = new byte[size];
+        String[] words = {"Lineage", "item", "skill", "npc", "quest", "zone", "=", ";", "\r\n", "\t"};
+        int position = 0;
+        while (position < size / 2) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            int count = Math.min(word.length, size / 2 - position);
+            System.arraycopy(word, 0, data, position, count);
+            position += count;
+        }
+        byte[] noise = new byte[size - position];
+        random.nextBytes(noise);
+        System.arraycopy(noise, 0, data, position, noise.length);
+        return data;
+    }
+
+    private static byte[] encrypt(byte[] data, int level, int strategy) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (OutputStream output = new L2Ver41xOutputStream(payload, MODULUS_L2ENCDEC, PUBLIC_EXPONENT_L2ENCDEC, null, data.length, level, strategy)) {
+            output.write(data);
+        }
+        return payload.toByteArray();
+    }
+}